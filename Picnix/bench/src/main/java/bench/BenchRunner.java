@@ -0,0 +1,35 @@
+package bench;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks, taking the usual JMH command line options.
+ * Unless told otherwise, the results are written as JSON to
+ * results/bench-(date)-(time).json, so runs can be compared.
+ */
+public class BenchRunner {
+
+	private static final String RESULTS_DIR = "results";
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+		if (!cmd.getResultFormat().hasValue())
+			options.resultFormat(ResultFormatType.JSON);
+		if (!cmd.getResult().hasValue()) {
+			new File(RESULTS_DIR).mkdirs();
+			String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+			options.result(RESULTS_DIR + File.separator + "bench-" + stamp + ".json");
+		}
+		new Runner(options.build()).run();
+	}
+
+}
@@ -0,0 +1,40 @@
+package bench;
+
+import java.util.SplittableRandom;
+
+/**
+ * Solution grids for the benchmarks, the same for every run.
+ */
+public class Boards {
+
+	/**
+	 * Makes a random square grid with about half of its cells filled.
+	 * @param size The width and height of the grid.
+	 * @param seed The seed of the grid.
+	 * @return The grid.
+	 */
+	public static boolean[][] random(int size, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		boolean[][] grid = new boolean[size][size];
+		for (int r = 0; r < size; r++)
+			for (int c = 0; c < size; c++)
+				grid[r][c] = random.nextBoolean();
+		return grid;
+	}
+
+	/**
+	 * Makes a square grid where every line alternates filled and
+	 * empty cells, so each line has as many clues as it can hold,
+	 * all of the same length - the slowest lines to cross.
+	 * @param size The width and height of the grid.
+	 * @return The grid.
+	 */
+	public static boolean[][] checkered(int size) {
+		boolean[][] grid = new boolean[size][size];
+		for (int r = 0; r < size; r++)
+			for (int c = 0; c < size; c++)
+				grid[r][c] = (r + c) % 2 == 0;
+		return grid;
+	}
+
+}
@@ -0,0 +1,82 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import picnix.Level;
+import picnix.World;
+import picnix.data.FileParser;
+
+/**
+ * Benchmarks reading the bundled world files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PackBench {
+
+	// black.pwr holds one level of each size
+	private static final int SIZED_WORLD = 2;
+
+	@State(Scope.Thread)
+	public static class WorldState {
+		@Param({"0", "1", "2"})
+		public int worldId;
+	}
+
+	@State(Scope.Thread)
+	public static class LevelState {
+		@Param({"5", "10", "15", "20"})
+		public int size;
+
+		public int levelId;
+
+		@Setup
+		public void setup() {
+			World.loadWorlds();
+			switch (size) {
+			case 10:
+				levelId = 0;
+				break;
+			case 15:
+				levelId = 1;
+				break;
+			case 20:
+				levelId = 2;
+				break;
+			default:
+				levelId = 3;
+			}
+		}
+	}
+
+	/**
+	 * Reads a world's header.
+	 */
+	@Benchmark
+	public World readWorld(WorldState world) {
+		return FileParser.readWorld(world.worldId);
+	}
+
+	/**
+	 * Reads a level of the given size.
+	 */
+	@Benchmark
+	public Level readLevel(LevelState level) {
+		return FileParser.readLevel(level.levelId, SIZED_WORLD);
+	}
+
+}
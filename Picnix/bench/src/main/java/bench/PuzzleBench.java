@@ -0,0 +1,200 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import picnix.puzzle.Puzzle;
+import picnix.puzzle.PuzzleDefinition;
+
+/**
+ * Benchmarks the puzzle logic: making definitions and attempts,
+ * marking cells the way a drag stroke or a click does, clue
+ * crossing, and the solved check.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PuzzleBench {
+
+	// cells a drag covers per frame, so per batch
+	private static final int CELLS_PER_FRAME = 4;
+
+	@State(Scope.Thread)
+	public static class BoardState {
+		@Param({"5", "10", "15", "20", "50", "100", "255"})
+		public int size;
+
+		public boolean[][] grid;
+		public PuzzleDefinition definition;
+
+		@Setup
+		public void setup() {
+			grid = Boards.random(size, size);
+			definition = new PuzzleDefinition(grid);
+		}
+	}
+
+	/**
+	 * An attempt for the drag strokes, left empty after each one.
+	 */
+	@State(Scope.Thread)
+	public static class DragState {
+		public Puzzle puzzle;
+		public int nextRow;
+
+		@Setup
+		public void setup(BoardState board) {
+			puzzle = new Puzzle(board.definition);
+		}
+	}
+
+	/**
+	 * An attempt with every line marked in its slowest pattern.
+	 */
+	@State(Scope.Thread)
+	public static class CrossState {
+		public Puzzle puzzle;
+		public int nextRow;
+
+		@Setup
+		public void setup(BoardState board) {
+			int size = board.size;
+			puzzle = new Puzzle(Boards.checkered(size));
+			// fill the filled cells and flag the empty ones, but leave every
+			// eighth empty cell unmarked, so neighbouring runs merge into
+			// unsettled blobs that could match more than one clue
+			puzzle.beginBatch();
+			for (int r = 0; r < size; r++)
+				for (int c = 0; c < size; c++)
+					if (puzzle.isFilledInSolution(r, c))
+						puzzle.markSpot(r, c, Puzzle.FILLED);
+					else if ((r * size + c) % 8 != 1)
+						puzzle.markSpot(r, c, Puzzle.FLAGGED);
+			puzzle.commitBatch();
+		}
+	}
+
+	/**
+	 * An attempt with every cell marked by the checkered solution, so
+	 * every line is all punctuated blobs, each matching every clue.
+	 */
+	@State(Scope.Thread)
+	public static class MarkedState {
+		public Puzzle puzzle;
+		public int nextCell;
+
+		@Setup
+		public void setup(BoardState board) {
+			int size = board.size;
+			puzzle = new Puzzle(Boards.checkered(size));
+			puzzle.beginBatch();
+			for (int r = 0; r < size; r++)
+				for (int c = 0; c < size; c++)
+					puzzle.markSpot(r, c, puzzle.isFilledInSolution(r, c) ? Puzzle.FILLED : Puzzle.FLAGGED);
+			puzzle.commitBatch();
+		}
+	}
+
+	/**
+	 * A solved attempt.
+	 */
+	@State(Scope.Thread)
+	public static class SolvedState {
+		public Puzzle puzzle;
+
+		@Setup
+		public void setup(BoardState board) {
+			puzzle = new Puzzle(board.definition);
+			puzzle.beginBatch();
+			for (int r = 0; r < board.size; r++)
+				for (int c = 0; c < board.size; c++)
+					if (puzzle.isFilledInSolution(r, c))
+						puzzle.markSpot(r, c, Puzzle.FILLED);
+			puzzle.commitBatch();
+		}
+	}
+
+	/**
+	 * Works out a level's clues from its solution, as loading an
+	 * original world file does.
+	 */
+	@Benchmark
+	public PuzzleDefinition newDefinition(BoardState board) {
+		return new PuzzleDefinition(board.grid);
+	}
+
+	/**
+	 * Starts an attempt at an already loaded level.
+	 */
+	@Benchmark
+	public Puzzle newAttempt(BoardState board) {
+		return new Puzzle(board.definition);
+	}
+
+	/**
+	 * Drags a stroke across a whole row, filling or flagging each
+	 * cell by the solution a few cells per frame, then erases it.
+	 */
+	@Benchmark
+	public boolean dragStroke(BoardState board, DragState drag) {
+		int row = drag.nextRow;
+		drag.nextRow = (row + 1) % board.size;
+		stroke(drag.puzzle, row, false);
+		boolean solved = drag.puzzle.isSolved();
+		stroke(drag.puzzle, row, true);
+		return solved;
+	}
+
+	private static void stroke(Puzzle puzzle, int row, boolean erase) {
+		int size = puzzle.getColumns();
+		for (int c = 0; c < size; c += CELLS_PER_FRAME) {
+			puzzle.beginBatch();
+			for (int i = c; i < Math.min(size, c + CELLS_PER_FRAME); i++) {
+				int mark = puzzle.isFilledInSolution(row, i) ? Puzzle.FILLED : Puzzle.FLAGGED;
+				puzzle.markSpot(row, i, erase ? Puzzle.EMPTY : mark);
+			}
+			puzzle.commitBatch();
+		}
+	}
+
+	/**
+	 * Crosses the clues of a line with as many clues as it can hold.
+	 */
+	@Benchmark
+	public void tryCrossing(BoardState board, CrossState cross) {
+		int row = cross.nextRow;
+		cross.nextRow = (row + 1) % board.size;
+		cross.puzzle.tryCrossing(true, row);
+	}
+
+	/**
+	 * Marks a single cell of a fully marked board, which crosses the
+	 * clues of its row and column, as a click does.
+	 */
+	@Benchmark
+	public boolean markCell(BoardState board, MarkedState marked) {
+		// the diagonal is filled in a checkered solution
+		int cell = marked.nextCell;
+		marked.nextCell = (cell + 1) % board.size;
+		return marked.puzzle.markSpot(cell, cell, Puzzle.FILLED);
+	}
+
+	@Benchmark
+	public boolean isSolved(SolvedState solved) {
+		return solved.puzzle.isSolved();
+	}
+
+}
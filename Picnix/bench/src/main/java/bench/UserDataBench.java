@@ -0,0 +1,57 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import picnix.World;
+import picnix.data.UserData;
+
+/**
+ * Benchmarks reading and saving the user data. The save file holds
+ * a score for every level of every world, whatever their size, so
+ * there is no board size to vary. It is written to user.data (and
+ * user.journal) in the working directory, like the game's.
+ *
+ * Reading doesn't start a journal, which loading does once in setup,
+ * and saving is timed until the change is synced to disk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UserDataBench {
+
+	private int score;
+
+	@Setup
+	public void setup() {
+		World.loadWorlds();
+		UserData.load();
+	}
+
+	@Benchmark
+	public int[][] read() {
+		return UserData.readScores();
+	}
+
+	@Benchmark
+	public void save() {
+		// a new score each time, as unchanged scores aren't written
+		score = score == 1 ? 2 : 1;
+		UserData.setPuzzleScore(0, 0, score);
+		UserData.flush();
+	}
+
+}
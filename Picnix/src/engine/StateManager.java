@@ -86,7 +86,7 @@ public class StateManager {
 	 */
 	public void exitTopState(boolean error) {
 		Input.getInstance().consumeAll();
-		stateStack.pop();
+		stateStack.pop().close();
 		if (!stateStack.empty())
 			stateStack.peek().focus(!error ? State.RETURNING : State.ERROR_RETURN);
 	}
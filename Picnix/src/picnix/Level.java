@@ -1,31 +1,51 @@
 package picnix;
 
 import picnix.puzzle.Puzzle;
+import picnix.puzzle.PuzzleDefinition;
 
 public class Level {
 	
 	public static final int MIN_MISTAKES = 1;
 	public static final int MAX_MISTAKES = 10;
 	
-	private Puzzle[] layers;
+	// the solution and clues of each layer, shared by every attempt
+	private PuzzleDefinition[] layers;
 	private boolean layered;
 	
 	private int id;
 	
-	public Level(Puzzle[] layers, int id) {
+	// difficulty worked out when the world file was built,
+	// or -1 if the file has none
+	private int rating = -1;
+	private int timeLimit;
+	private int mistakeCap;
+	
+	public Level(PuzzleDefinition[] layers, int id) {
 		this.layers = layers;
 		this.layered = layers.length > 1;
 		this.id = id;
 	}
 	
-	public Level(Puzzle puzzle, int id) {
-		this(new Puzzle[] {puzzle}, id);
+	public Level(PuzzleDefinition puzzle, int id) {
+		this(new PuzzleDefinition[] {puzzle}, id);
 	}
 	
-	public Puzzle[] getPuzzles() {
+	public PuzzleDefinition[] getDefinitions() {
 		return layers;
 	}
 	
+	/**
+	 * Starts a new attempt at this level, with
+	 * a fresh, unmarked Puzzle for each layer.
+	 * @return The attempt's puzzles.
+	 */
+	public Puzzle[] newAttempt() {
+		Puzzle[] puzzles = new Puzzle[layers.length];
+		for (int i = 0; i < layers.length; i++)
+			puzzles[i] = new Puzzle(layers[i]);
+		return puzzles;
+	}
+	
 	public boolean isLayered() {
 		return layered;
 	}
@@ -34,12 +54,35 @@ public class Level {
 		return id;
 	}
 
+	/**
+	 * Sets the difficulty stored for this level in its world file.
+	 * @param rating The level's rating.
+	 * @param timeLimit The time limit, in seconds.
+	 * @param mistakeCap The number of mistakes allowed.
+	 */
+	public void setDifficulty(int rating, int timeLimit, int mistakeCap) {
+		this.rating = rating;
+		this.timeLimit = timeLimit;
+		this.mistakeCap = mistakeCap;
+	}
+	
+	/**
+	 * @return The level's difficulty rating, or -1 if unrated.
+	 */
+	public int getRating() {
+		return rating;
+	}
+
 	public int getMistakeCap() {
-		return 3;
+		if (rating < 0) // unrated - use the old defaults
+			return 3;
+		return mistakeCap;
 	}
 
 	public int getTimeLimit() {
-		return 60 * (layers[0].getRows() * 2 * layers.length);
+		if (rating < 0)
+			return 60 * (layers[0].getRows() * 2 * layers.length);
+		return timeLimit;
 	}
 	
 }
\ No newline at end of file
@@ -1,5 +1,8 @@
 package picnix;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import picnix.data.FileParser;
 
 public class World {
@@ -17,6 +20,9 @@ public class World {
 	
 	private static World[] worlds = new World[NUM_WORLDS];
 	
+	// how many decoded levels each world keeps around
+	private static final int LEVEL_CACHE_SIZE = 8;
+	
 	static {
 		double max = 0;
 		for (int i = NUM_LOCATIONS - 1; i >= 0; i--) {
@@ -67,11 +73,53 @@ public class World {
 	private int id;
 	private int unlockScore;
 	private boolean[] levels;
+	// per-level difficulty from the world file, or null if it has none
+	private int[] ratings;
+	private int[] timeLimits;
+	private int[] mistakeCaps;
+	// recently played levels, least recently played first
+	private LinkedHashMap<Integer, Level> levelCache;
 	
 	public World(int id, int unlockScore, boolean[] levels) {
 		this.id = id;
 		this.unlockScore = unlockScore;
 		this.levels = levels;
+		levelCache = new LinkedHashMap<Integer, Level>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Level> eldest) {
+				return size() > LEVEL_CACHE_SIZE;
+			}
+		};
+	}
+	
+	/**
+	 * Sets the difficulty of every level, as stored in the world file.
+	 * @param ratings The rating of each level.
+	 * @param timeLimits The time limit of each level, in seconds.
+	 * @param mistakeCaps The mistake cap of each level.
+	 */
+	public void setDifficulties(int[] ratings, int[] timeLimits, int[] mistakeCaps) {
+		this.ratings = ratings;
+		this.timeLimits = timeLimits;
+		this.mistakeCaps = mistakeCaps;
+	}
+	
+	public boolean hasDifficulties() {
+		return ratings != null;
+	}
+	
+	public int getRating(int levelId) {
+		return ratings[levelId];
+	}
+	
+	public int getTimeLimit(int levelId) {
+		return timeLimits[levelId];
+	}
+	
+	public int getMistakeCap(int levelId) {
+		return mistakeCaps[levelId];
 	}
 	
 	public int getId() {
@@ -102,8 +150,29 @@ public class World {
 		return levels.length;
 	}
 	
+	/**
+	 * Gets a level of this world, only reading it from the
+	 * world file if it isn't one of the recently played levels.
+	 * Levels are never changed by playing them (each attempt
+	 * gets its own Puzzles), so they are safe to hand out again.
+	 * Levels can be loaded from any thread (the prefetcher does).
+	 * @param levelId The level's id.
+	 * @return The level, or null if it couldn't be read.
+	 */
 	public Level loadLevel(int levelId) {
-		return FileParser.readLevel(levelId, id);
+		Level level;
+		synchronized (levelCache) {
+			level = levelCache.get(levelId);
+		}
+		if (level == null) {
+			// read outside the lock, so other levels aren't held up
+			level = FileParser.readLevel(levelId, id);
+			if (level != null)
+				synchronized (levelCache) {
+					levelCache.put(levelId, level);
+				}
+		}
+		return level;
 	}
 	
 }
@@ -1,42 +1,373 @@
 package picnix.data;
 
 import java.awt.image.BufferedImage;
-import java.io.DataInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
 
 import javax.imageio.ImageIO;
 
+import picnix.puzzle.PuzzleDefinition;
+import picnix.solver.Rater;
+import picnix.solver.UniquenessChecker;
+
+/**
+ * Builds a world (.pwr) file from a folder of level images.
+ *
+ * Each .png is encoded into a .puz (or layered .lpz) file next to it,
+ * as long as every layer has exactly one solution, and rated. Level
+ * files without an image (from PuzzleGenerator, say) are taken as
+ * they are. Levels go into the world in order of their file names,
+ * so name them to sort (level001, level002, ...).
+ *
+ * Encoding is done in parallel. A build manifest next to the inputs
+ * keeps each input's content hash and rating, so an input that hasn't
+ * changed since the last build is loaded from its level file instead
+ * of being checked and rated again.
+ *
+ * Usage: FileGenerator source name unlockScore [output dir] [threads]
+ */
 public class FileGenerator {
 
-	private static final String SOURCE = "L:\\Users\\Jason\\Documents\\Programming\\picross\\levels\\real";
-	
+	// the first line of a build manifest (from 2, level files
+	// are checked like images, so older manifests are dropped)
+	private static final String MANIFEST_HEADER = "picnix build manifest 2";
+	// the most rows or columns a level can have (each is stored in a byte)
+	private static final int MAX_SIZE = 255;
+
+	// one unit of work: a single input file
+	private static class LevelJob {
+		File input;
+		String hash;
+		boolean[][][] grids;
+		int rating;
+		int timeLimit;
+		int mistakeCap;
+		// the level's record in the world file
+		byte[] record;
+		boolean reused;
+		String error;
+	}
+
+	/**
+	 * Splits a range of jobs in half until a single input
+	 * remains, so idle workers can steal the other halves.
+	 */
+	private static class BuildTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private LevelJob[] jobs;
+		private HashMap<String, String[]> manifest;
+		private int low, high;
+
+		BuildTask(LevelJob[] jobs, HashMap<String, String[]> manifest, int low, int high) {
+			this.jobs = jobs;
+			this.manifest = manifest;
+			this.low = low;
+			this.high = high;
+		}
+
+		@Override
+		protected void compute() {
+			if (high - low == 1) {
+				build(jobs[low], manifest);
+				return;
+			}
+			int mid = (low + high) >>> 1;
+			invokeAll(new BuildTask(jobs, manifest, low, mid), new BuildTask(jobs, manifest, mid, high));
+		}
+	}
+
 	public static void main(String args[]) throws IOException {
-		encodeAll(SOURCE);
-		combineIntoWorld("park", 5000, SOURCE);
+		if (args.length < 3) {
+			System.err.println("usage: FileGenerator source name unlockScore [output dir] [threads]");
+			return;
+		}
+		File source = new File(args[0]);
+		String name = args[1];
+		int unlockScore = Integer.parseInt(args[2]);
+		File outdir = args.length > 3 ? new File(args[3]) : source;
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		buildWorld(source, name, unlockScore, outdir, threads);
 	}
-	
-	private static void combineIntoWorld(String name, int unlockScore, String source) throws IOException {
-		File indir = new File(source);
-		int count = indir.list((d, n) -> n.contains("puz") || n.contains("lpz")).length;
-		File outfile = new File(source + "\\" + name + ".pwr");
-		outfile.createNewFile();
-		FileOutputStream fos = new FileOutputStream(outfile);
-		DataOutputStream dos = new DataOutputStream(fos);
-		dos.write(count); // write the count metadata
+
+	/**
+	 * Builds a world file from a folder of inputs, encoding only
+	 * the inputs that changed since the last build.
+	 * @param source The folder of level images and files.
+	 * @param name The world's name; the file is name.pwr.
+	 * @param unlockScore The score needed to unlock the world.
+	 * @param outdir The folder to write the world file to.
+	 * @param threads The number of threads to encode on.
+	 * @return True if the world was written, false if an input was rejected.
+	 */
+	public static boolean buildWorld(File source, String name, int unlockScore, File outdir, int threads) throws IOException {
+		long start = System.nanoTime();
+		LevelJob[] jobs = listInputs(source);
+		File manifestFile = new File(source, name + ".manifest");
+		HashMap<String, String[]> manifest = readManifest(manifestFile);
+		if (jobs.length > 0) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			pool.invoke(new BuildTask(jobs, manifest, 0, jobs.length));
+			pool.shutdown();
+		}
+		int rejected = 0;
+		int reused = 0;
+		for (LevelJob job : jobs) {
+			if (job.error != null) {
+				System.err.print(job.error);
+				rejected++;
+			}
+			else if (job.reused)
+				reused++;
+			else
+				System.out.println(job.input.getName() + ": rating " + job.rating + ", "
+						+ job.timeLimit + "s, " + job.mistakeCap + " mistakes");
+		}
+		// remember what was encoded, even if the world isn't written
+		writeManifest(manifestFile, jobs);
+		if (rejected > 0) {
+			System.err.println(rejected + " input(s) rejected, world not combined");
+			return false;
+		}
+		int count = jobs.length;
+		boolean[] layered = new boolean[count];
+		int[] ratings = new int[count];
+		int[] timeLimits = new int[count];
+		int[] mistakeCaps = new int[count];
+		byte[][] records = new byte[count][];
+		for (int n = 0; n < count; n++) {
+			layered[n] = jobs[n].grids.length > 1;
+			ratings[n] = jobs[n].rating;
+			timeLimits[n] = jobs[n].timeLimit;
+			mistakeCaps[n] = jobs[n].mistakeCap;
+			records[n] = jobs[n].record;
+		}
+		outdir.mkdirs();
+		writeWorld(new File(outdir, name + ".pwr"), unlockScore, layered, ratings, timeLimits, mistakeCaps, records);
+		System.err.println(count + " levels (" + (count - reused) + " encoded, " + reused + " unchanged) on "
+				+ threads + " threads in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+		return true;
+	}
+
+	/**
+	 * Lists a folder's inputs in level order: each image, and each
+	 * level file that wasn't encoded from an image, by file name.
+	 */
+	private static LevelJob[] listInputs(File source) throws IOException {
+		File[] files = source.listFiles();
+		if (files == null)
+			throw new IOException("not a folder: " + source);
+		Arrays.sort(files);
+		ArrayList<String> images = new ArrayList<String>();
+		for (File f : files)
+			if (f.getName().endsWith(".png"))
+				images.add(baseName(f));
+		ArrayList<LevelJob> jobs = new ArrayList<LevelJob>();
+		for (File f : files) {
+			String fileName = f.getName();
+			boolean levelFile = fileName.endsWith(".puz") || fileName.endsWith(".lpz");
+			if (fileName.endsWith(".png") || (levelFile && !images.contains(baseName(f)))) {
+				LevelJob job = new LevelJob();
+				job.input = f;
+				jobs.add(job);
+			}
+		}
+		return jobs.toArray(new LevelJob[jobs.size()]);
+	}
+
+	private static String baseName(File f) {
+		String fileName = f.getName();
+		int dot = fileName.lastIndexOf('.');
+		return dot < 0 ? fileName : fileName.substring(0, dot);
+	}
+
+	/**
+	 * Encodes and rates one input, or loads it from its level file
+	 * if the manifest shows it hasn't changed, then makes its record.
+	 */
+	private static void build(LevelJob job, HashMap<String, String[]> manifest) {
+		try {
+			byte[] data = Files.readAllBytes(job.input.toPath());
+			job.hash = hash(data);
+			boolean image = job.input.getName().endsWith(".png");
+			String[] entry = manifest.get(job.input.getName());
+			File levelFile = image ? findLevelFile(job.input) : job.input;
+			if (entry != null && entry[0].equals(job.hash) && levelFile != null) {
+				// unchanged since the last build
+				job.grids = readLevel(levelFile);
+				job.rating = Integer.parseInt(entry[1]);
+				job.timeLimit = Integer.parseInt(entry[2]);
+				job.mistakeCap = Integer.parseInt(entry[3]);
+				job.reused = true;
+			}
+			else {
+				if (image)
+					job.grids = encode(job, data);
+				else {
+					boolean[][][] grids = decodeLevel(data, job.input.getName().endsWith(".lpz") ? 3 : 1);
+					job.grids = checkUnique(job, grids) ? grids : null;
+				}
+				if (job.grids == null)
+					return;
+				rateLevel(job);
+			}
+			job.record = encodeRecord(job.grids);
+		} catch (IOException | RuntimeException e) {
+			job.error = job.input.getName() + ": " + e + "\n";
+		}
+	}
+
+	/**
+	 * Finds the level file an image was encoded into, if there is one.
+	 */
+	private static File findLevelFile(File image) {
+		for (String ext : new String[] {".puz", ".lpz"}) {
+			File f = new File(image.getParentFile(), baseName(image) + ext);
+			if (f.exists())
+				return f;
+		}
+		return null;
+	}
+
+	private static boolean[][][] readLevel(File levelFile) throws IOException {
+		return decodeLevel(Files.readAllBytes(levelFile.toPath()), levelFile.getName().endsWith(".lpz") ? 3 : 1);
+	}
+
+	/**
+	 * Hashes an input's contents.
+	 * @return The SHA-256 hash, in hex.
+	 */
+	private static String hash(byte[] data) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest)
+				sb.append(String.format("%02x", b));
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Reads a build manifest: for each input, its hash, rating,
+	 * time limit and mistake cap. A missing or outdated manifest
+	 * is read as empty, so everything is encoded again.
+	 */
+	private static HashMap<String, String[]> readManifest(File file) throws IOException {
+		HashMap<String, String[]> manifest = new HashMap<String, String[]>();
+		if (!file.exists())
+			return manifest;
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		if (MANIFEST_HEADER.equals(reader.readLine())) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				// name, then hash, rating, time limit, mistake cap
+				String[] parts = line.split("\t");
+				if (parts.length == 5)
+					manifest.put(parts[0], Arrays.copyOfRange(parts, 1, 5));
+			}
+		}
+		reader.close();
+		return manifest;
+	}
+
+	/**
+	 * Writes the build manifest for every input that was built.
+	 */
+	private static void writeManifest(File file, LevelJob[] jobs) throws IOException {
+		PrintStream out = new PrintStream(new FileOutputStream(file));
+		out.println(MANIFEST_HEADER);
+		for (LevelJob job : jobs)
+			if (job.error == null && job.grids != null)
+				out.println(job.input.getName() + "\t" + job.hash + "\t" + job.rating + "\t"
+						+ job.timeLimit + "\t" + job.mistakeCap);
+		out.close();
+	}
+
+	/**
+	 * Writes a world file in the clue table layout (see FileParser),
+	 * rating each level as it goes by.
+	 * @param outfile The file to write.
+	 * @param unlockScore The score needed to unlock the world.
+	 * @param levels The solution grid of each layer of each level.
+	 * @param names A name for each level, for the log (or null).
+	 */
+	public static void writeWorld(File outfile, int unlockScore, boolean[][][][] levels, String[] names) throws IOException {
+		int count = levels.length;
+		boolean[] layered = new boolean[count];
+		int[] ratings = new int[count];
+		int[] timeLimits = new int[count];
+		int[] mistakeCaps = new int[count];
+		byte[][] records = new byte[count][];
+		for (int n = 0; n < count; n++) {
+			LevelJob job = new LevelJob();
+			job.grids = levels[n];
+			rateLevel(job);
+			System.out.println((names != null ? names[n] : "level " + n) + ": rating " + job.rating + ", "
+					+ job.timeLimit + "s, " + job.mistakeCap + " mistakes");
+			layered[n] = levels[n].length > 1;
+			ratings[n] = job.rating;
+			timeLimits[n] = job.timeLimit;
+			mistakeCaps[n] = job.mistakeCap;
+			records[n] = encodeRecord(levels[n]);
+		}
+		writeWorld(outfile, unlockScore, layered, ratings, timeLimits, mistakeCaps, records);
+	}
+
+	/**
+	 * Writes a world file of already encoded levels, in one pass:
+	 * since every record's length is known, so is every offset.
+	 * The new file is written beside the old one, then copied to the
+	 * backup (.bak) that FileParser falls back on, so the backup holds
+	 * the same levels (scores are kept by level index).
+	 * @param outfile The file to write.
+	 * @param unlockScore The score needed to unlock the world.
+	 * @param layered Whether each level is layered.
+	 * @param ratings The rating of each level.
+	 * @param timeLimits The time limit of each level, in seconds.
+	 * @param mistakeCaps The mistake cap of each level.
+	 * @param records Each level's record (see {@link #encodeRecord}).
+	 */
+	private static void writeWorld(File outfile, int unlockScore, boolean[] layered, int[] ratings,
+			int[] timeLimits, int[] mistakeCaps, byte[][] records) throws IOException {
+		int count = layered.length;
+		if (count > 0xffff)
+			throw new IOException("too many levels for one world: " + count);
+		File temp = new File(outfile.getPath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(temp);
+		// checksums the header as it's written
+		CheckedOutputStream header = new CheckedOutputStream(new BufferedOutputStream(fos), new CRC32C());
+		DataOutputStream dos = new DataOutputStream(header);
+		dos.write(0); // marks the clue table layout
+		dos.write(FileParser.TABLE_VERSION);
+		dos.writeShort(count); // write the count metadata
 		dos.writeInt(unlockScore); // write the unlock score metadata
 		int b = 0;
 		byte curByte = 0;
 		// writes metadata bits for if puzzles are normal or layered
-		for (File f : indir.listFiles()) {
-			if (!f.getName().contains("puz") && !f.getName().contains("lpz"))
-				continue;
-			// write a 1 if filetype is lpz, else a 0 bit
-			boolean layered = f.getName().split("\\.")[1].equals("lpz");
-			curByte |= (layered ? 1 : 0) << b;
+		for (int n = 0; n < count; n++) {
+			curByte |= (layered[n] ? 1 : 0) << b;
 			b++;
 			if (b == 8) {
 				dos.write(curByte);
@@ -47,71 +378,298 @@ public class FileGenerator {
 		// write final byte (padded)
 		if (b != 0)
 			dos.write(curByte);
-		// actually copy in all the puzzle data one by one
-		for (File f : indir.listFiles()) {
-			if (!f.getName().contains("puz") && !f.getName().contains("lpz"))
-				continue;
-			FileInputStream fis = new FileInputStream(f);
-			DataInputStream dis = new DataInputStream(fis);
-			int nextByte = 0;
-			while ((nextByte = dis.read()) != -1)
-				dos.write(nextByte);
-			dis.close();
+		// difficulty table: rating, time limit (seconds), mistake cap
+		for (int n = 0; n < count; n++) {
+			dos.write(ratings[n]);
+			dos.writeShort(timeLimits[n]);
+			dos.write(mistakeCaps[n]);
+		}
+		// where each level's record starts in the file: each record is
+		// prefixed by its length and followed by its checksum, after
+		// the offsets and their checksum
+		int offset = dos.size() + 4 * count + 4;
+		for (int n = 0; n < count; n++) {
+			dos.writeInt(offset);
+			offset += 4 + records[n].length + 4;
+		}
+		dos.writeInt((int) header.getChecksum().getValue());
+		CRC32C crc = new CRC32C();
+		for (int n = 0; n < count; n++) {
+			dos.writeInt(records[n].length);
+			dos.write(records[n]);
+			crc.reset();
+			crc.update(records[n]);
+			dos.writeInt((int) crc.getValue());
 		}
 		dos.close();
-	}	
+		// the backup goes first, so the old file stays whole until it's replaced
+		File backup = new File(outfile.getPath() + ".bak");
+		File backupTemp = new File(backup.getPath() + ".tmp");
+		Files.copy(temp.toPath(), backupTemp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.move(backupTemp.toPath(), backup.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.move(temp.toPath(), outfile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Encodes a level's record for a world file, without its length:
+	 * rows and cols bytes, how the solutions are stored, then for each
+	 * layer the solution, the filled cell count, and the clues of each
+	 * row and each column. The solutions are stored as bits or as runs,
+	 * whichever takes less room for the level.
+	 * @param grids The solution grid of each layer.
+	 * @return The record.
+	 */
+	private static byte[] encodeRecord(boolean[][][] grids) throws IOException {
+		checkSize(grids);
+		// every layer's solution both ways, to see which is smaller
+		ByteArrayOutputStream[] bits = new ByteArrayOutputStream[grids.length];
+		ByteArrayOutputStream[] runs = new ByteArrayOutputStream[grids.length];
+		int bitsSize = 0;
+		int runsSize = 0;
+		for (int p = 0; p < grids.length; p++) {
+			bits[p] = new ByteArrayOutputStream();
+			writeBits(new DataOutputStream(bits[p]), grids[p]);
+			bitsSize += bits[p].size();
+			runs[p] = new ByteArrayOutputStream();
+			writeRuns(new DataOutputStream(runs[p]), grids[p]);
+			runsSize += runs[p].size();
+		}
+		boolean useRuns = runsSize < bitsSize;
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		DataOutputStream rec = new DataOutputStream(record);
+		rec.write(grids[0].length); // rows
+		rec.write(grids[0][0].length); // cols
+		rec.write(useRuns ? FileParser.SOLUTION_RUNS : FileParser.SOLUTION_BITS);
+		for (int p = 0; p < grids.length; p++) {
+			(useRuns ? runs[p] : bits[p]).writeTo(rec);
+			PuzzleDefinition def = new PuzzleDefinition(grids[p]);
+			writeVarInt(rec, def.getFilledCellsInSolution());
+			for (int r = 0; r < def.getRows(); r++)
+				writeClues(rec, def.getClueRow(r));
+			for (int c = 0; c < def.getColumns(); c++)
+				writeClues(rec, def.getClueColumn(c));
+		}
+		rec.flush();
+		return record.toByteArray();
+	}
+
+	/**
+	 * Writes a line's clue count, then its clues, as varints.
+	 */
+	private static void writeClues(DataOutputStream dos, int[] clues) throws IOException {
+		writeVarInt(dos, clues.length);
+		for (int i = 0; i < clues.length; i++)
+			writeVarInt(dos, clues[i]);
+	}
 	
-	private static void encodeAll(String source) throws IOException {
-		File indir = new File(source);
-		for (File f : indir.listFiles())
-			if (f.getName().contains("png"))
-				encode(f, source);
+	/**
+	 * Writes a solution grid as runs (see FileParser): the lengths of
+	 * alternating empty and filled runs, row after row, as varints.
+	 */
+	private static void writeRuns(DataOutputStream dos, boolean[][] grid) throws IOException {
+		boolean filled = false;
+		int run = 0;
+		for (int y = 0; y < grid.length; y++) {
+			for (int x = 0; x < grid[y].length; x++) {
+				if (grid[y][x] != filled) {
+					writeVarInt(dos, run);
+					filled = !filled;
+					run = 0;
+				}
+				run++;
+			}
+		}
+		// the last run, which ends with the grid
+		writeVarInt(dos, run);
 	}
 
-	private static void encode(File image, String bin) throws IOException {
-		BufferedImage img = ImageIO.read(image);
-		boolean layered = containsColor(img);
-		File outfile = new File(bin + "\\" + image.getName().split("\\.")[0] + (layered ? ".lpz" : ".puz"));
+	/**
+	 * Writes an unsigned varint: seven bits per byte, low bits
+	 * first, with the top bit set on every byte but the last.
+	 */
+	private static void writeVarInt(DataOutputStream dos, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			dos.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		dos.write(value);
+	}
+	
+	/**
+	 * Decodes the solution grids of a .puz or .lpz level.
+	 * @param data The level's file data.
+	 * @param numLayers The number of layers in the level.
+	 * @return The solution grid of each layer.
+	 */
+	private static boolean[][][] decodeLevel(byte[] data, int numLayers) throws IOException {
+		if (data.length < 2)
+			throw new IOException("not a level file");
+		// (a byte each, so never over MAX_SIZE)
+		int rows = data[0] & 0xff;
+		int cols = data[1] & 0xff;
+		int layerBytes = (rows * cols + 7) / 8;
+		if (rows == 0 || cols == 0 || data.length < 2 + numLayers * layerBytes)
+			throw new IOException("level file is cut short or empty");
+		boolean[][][] grids = new boolean[numLayers][rows][cols];
+		for (int p = 0; p < numLayers; p++)
+			for (int i = 0; i < rows * cols; i++)
+				grids[p][i / cols][i % cols] = ((data[2 + p * layerBytes + i / 8] >> (i % 8)) & 1) != 0;
+		return grids;
+	}
+	
+	/**
+	 * Rates a level. The level's rating is that of its
+	 * hardest layer, and its time limit is the sum over its layers.
+	 * @param job The level, with its solution grid of each layer.
+	 */
+	private static void rateLevel(LevelJob job) {
+		boolean[][][] grids = job.grids;
+		int rows = grids[0].length;
+		int cols = grids[0][0].length;
+		for (int p = 0; p < grids.length; p++) {
+			int rating = new Rater(new PuzzleDefinition(grids[p])).rate();
+			job.rating = Math.max(job.rating, rating);
+			job.timeLimit += Rater.getTimeLimit(rating, rows, cols);
+		}
+		// the time limit is stored in two bytes
+		job.timeLimit = Math.min(0xffff, job.timeLimit);
+		job.mistakeCap = Rater.getMistakeCap(job.rating);
+	}
+
+	/**
+	 * Encodes an image into a .puz (or layered .lpz) file next to
+	 * it, as long as every layer has exactly one solution.
+	 * @param job The image's job; its error is set if it's rejected.
+	 * @param data The image file's contents.
+	 * @return The solution grid of each layer, or null if the image was rejected.
+	 */
+	private static boolean[][][] encode(LevelJob job, byte[] data) throws IOException {
+		BufferedImage img = ImageIO.read(new ByteArrayInputStream(data));
+		if (img == null)
+			throw new IOException("not a readable image");
+		int width = img.getWidth();
+		int height = img.getHeight();
+		if (width > MAX_SIZE || height > MAX_SIZE) {
+			job.error = job.input.getName() + ": " + width + "x" + height
+					+ " is bigger than " + MAX_SIZE + "x" + MAX_SIZE + "\n";
+			return null;
+		}
+		// every pixel in one read, row by row
+		int[] pixels = img.getRGB(0, 0, width, height, null, 0, width);
+		boolean layered = containsColor(pixels);
+		boolean[][][] grids = new boolean[layered ? 3 : 1][height][width];
+		for (int i = 0; i < grids.length; i++) {
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					int col = pixels[y * width + x] & 0xffffff;
+					if (layered)
+						grids[i][y][x] = assessCol(i, col);
+					else
+						grids[i][y][x] = col == 0;
+				}
+			}
+		}
+		if (!checkUnique(job, grids))
+			return null;
+		String name = baseName(job.input);
+		writeLevel(new File(job.input.getParentFile(), name + (layered ? ".lpz" : ".puz")), grids);
+		// an older encoding may have had the other number of layers
+		new File(job.input.getParentFile(), name + (layered ? ".puz" : ".lpz")).delete();
+		return grids;
+	}
+
+	/**
+	 * Checks that every layer of a level has exactly one solution.
+	 * An ambiguous puzzle can't be solved by logic alone, so it
+	 * would mark players "wrong" when their board fits every clue.
+	 * @param job The level's job; its error is set if it's rejected.
+	 * @param grids The solution grid of each layer.
+	 * @return True if every layer is unique.
+	 */
+	private static boolean checkUnique(LevelJob job, boolean[][][] grids) {
+		for (int i = 0; i < grids.length; i++) {
+			UniquenessChecker checker = new UniquenessChecker(new PuzzleDefinition(grids[i]));
+			int result = checker.check();
+			if (result != UniquenessChecker.UNIQUE) {
+				job.error = job.input.getName() + (grids.length > 1 ? " (layer " + i + ")" : "") + ": "
+						+ UniquenessChecker.getResultName(result) + "\n";
+				if (result == UniquenessChecker.MULTIPLE)
+					job.error += gridToString(checker.getCounterExample());
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Makes sure a level's rows and columns each fit in a byte.
+	 * @param grids The solution grid of each layer.
+	 */
+	private static void checkSize(boolean[][][] grids) throws IOException {
+		if (grids[0].length > MAX_SIZE || grids[0][0].length > MAX_SIZE)
+			throw new IOException("level is bigger than " + MAX_SIZE + "x" + MAX_SIZE);
+	}
+
+	/**
+	 * Writes a level file: a .puz file for one layer, or a .lpz for three.
+	 * @param outfile The file to write.
+	 * @param grids The solution grid of each layer.
+	 */
+	public static void writeLevel(File outfile, boolean[][][] grids) throws IOException {
+		checkSize(grids);
+		int rows = grids[0].length;
+		int cols = grids[0][0].length;
 		outfile.createNewFile();
 		FileOutputStream fos = new FileOutputStream(outfile);
 		DataOutputStream dos = new DataOutputStream(fos);
-		dos.write(img.getHeight()); // rows
-		dos.write(img.getWidth()); // cols
+		dos.write(rows); // rows
+		dos.write(cols); // cols
 		//dos.write(8); // time limit
 		//dos.write(3); // mistakes
-		for (int i = 0; i < (layered ? 3 : 1); i++) {
-			int b = 0;
-			byte curByte = 0;
-			for (int y = 0; y < img.getHeight(); y++) {
-				for (int x = 0; x < img.getWidth(); x++) {
-					int col = img.getRGB(x, y) & 0xffffff;
-					if (layered)
-						curByte |= (assessCol(i, col) ? 1 : 0) << b;
-					else
-						curByte |= (col == 0 ? 1 : 0) << b;
-					b++;
-					if (b == 8) {
-						dos.write(curByte);
-						b = 0;
-						curByte = 0;
-					}
+		for (int i = 0; i < grids.length; i++)
+			writeBits(dos, grids[i]);
+		dos.close();
+	}
+
+	/**
+	 * Writes a solution grid's bits, row by row, padded to a byte.
+	 */
+	private static void writeBits(DataOutputStream dos, boolean[][] grid) throws IOException {
+		int b = 0;
+		byte curByte = 0;
+		for (int y = 0; y < grid.length; y++) {
+			for (int x = 0; x < grid[y].length; x++) {
+				curByte |= (grid[y][x] ? 1 : 0) << b;
+				b++;
+				if (b == 8) {
+					dos.write(curByte);
+					b = 0;
+					curByte = 0;
 				}
 			}
-			// final byte
-			if (b != 0)
-				dos.write(curByte);
 		}
-		dos.close();
+		// final byte
+		if (b != 0)
+			dos.write(curByte);
 	}
 
-	private static boolean containsColor(BufferedImage img) {
-		for (int y = 0; y < img.getHeight(); y++)
-			for (int x = 0; x < img.getWidth(); x++) {
-				int col = img.getRGB(x, y) & 0xffffff;
-				// abs value of white = 1 or black = 0
-				if (col != 0 && col != 0xffffff)
-					return true;
-			}
+	private static String gridToString(boolean[][] grid) {
+		StringBuilder sb = new StringBuilder();
+		for (int r = 0; r < grid.length; r++) {
+			for (int c = 0; c < grid[r].length; c++)
+				sb.append(grid[r][c] ? '#' : '.');
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static boolean containsColor(int[] pixels) {
+		for (int i = 0; i < pixels.length; i++) {
+			int col = pixels[i] & 0xffffff;
+			// abs value of white = 1 or black = 0
+			if (col != 0 && col != 0xffffff)
+				return true;
+		}
 		return false;
 	}
 	
@@ -1,120 +1,474 @@
 package picnix.data;
 
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.CRC32C;
 
 import picnix.Level;
 import picnix.World;
-import picnix.puzzle.Puzzle;
+import picnix.puzzle.BitGrid;
+import picnix.puzzle.PuzzleDefinition;
 
+/**
+ * Reads worlds and levels from world (.pwr) files.
+ *
+ * The original layout is a level count byte, the unlock score (int),
+ * one layered bit per level (padded to a byte), then each level's rows
+ * and cols bytes and its solution bits (padded, three times if layered),
+ * and maybe a difficulty section (see readDifficulties).
+ *
+ * The clue table layout starts with a zero byte, which an original
+ * file never does, then a version byte. Its header holds the level
+ * count (short), the unlock score (int), the layered bits, and each
+ * level's rating byte, time limit (short) and mistake cap byte. Each
+ * level follows as a record: its length (int), rows and cols bytes,
+ * then for each layer the solution bits, the filled cell count, and
+ * the clues of each row and then each column (a clue count, then the
+ * clues), all as varints. The clues are loaded as they are, instead
+ * of being worked out from the solution again. From version 2, the
+ * difficulties are followed by each level's offset in the file (int),
+ * so a level can be read without stepping over the ones before it.
+ * From version 3, each record's rows and cols are followed by how its
+ * solutions are stored: as bits, or as runs (see readRuns), which
+ * take much less room for big or mostly empty pictures. From version
+ * 4, the offsets are followed by a CRC-32C of everything before it,
+ * and each record by a CRC-32C of the record (not counted in its
+ * length), so a damaged file can be told from a sound one.
+ *
+ * Each world file is loaded once, into a buffer (mapped, if the file
+ * is on disk), and where each level starts is worked out then. Levels
+ * are decoded from the buffer only when they are asked for. Its
+ * checksums are all checked then, in one pass over the buffer; if
+ * they don't match, the backup (.bak) file next to it is used.
+ */
 public class FileParser {
 
 	private static final int NUM_LAYERS = 3;
-	
+	// a level's rating, time limit and mistake cap, in bytes
+	private static final int DIFFICULTY_BYTES = 4;
+
+	// the version of the clue table layout
+	public static final int TABLE_VERSION = 4;
+	// the first version with a level offset table
+	private static final int OFFSETS_VERSION = 2;
+	// the first version that can store solutions as runs
+	private static final int RUNS_VERSION = 3;
+	// the first version with checksums
+	private static final int CHECKSUM_VERSION = 4;
+
+	// how a record's solutions are stored
+	public static final int SOLUTION_BITS = 0;
+	public static final int SOLUTION_RUNS = 1;
+
+	// world files already loaded, by path (some worlds share a file)
+	private static HashMap<String, Pack> packs = new HashMap<String, Pack>();
+
+	/**
+	 * A world file held in memory, with its header and where each of
+	 * its levels starts. It is only read at given positions (never
+	 * through the buffer's own position), so threads can share it.
+	 */
+	private static class Pack {
+		private ByteBuffer data;
+		private boolean table;
+		private int version;
+		private int unlockScore;
+		private boolean[] levels;
+		// per-level difficulty, or null if the file has none
+		private int[] ratings;
+		private int[] timeLimits;
+		private int[] mistakeCaps;
+		// where each level's rows byte is
+		private int[] offsets;
+	}
+
+	/**
+	 * Reads from a buffer at a position of its own.
+	 */
+	private static class Cursor {
+		private ByteBuffer data;
+		private int pos;
+
+		private Cursor(ByteBuffer data, int pos) {
+			this.data = data;
+			this.pos = pos;
+		}
+
+		private int readByte() {
+			return data.get(pos++) & 0xff;
+		}
+
+		private int readShort() {
+			int value = data.getShort(pos) & 0xffff;
+			pos += 2;
+			return value;
+		}
+
+		private int readInt() {
+			int value = data.getInt(pos);
+			pos += 4;
+			return value;
+		}
+
+		/**
+		 * Reads an unsigned varint: seven bits per byte, low bits
+		 * first, with the top bit set on every byte but the last.
+		 */
+		private int readVarInt() {
+			int value = 0;
+			for (int shift = 0; ; shift += 7) {
+				int b = readByte();
+				value |= (b & 0x7f) << shift;
+				if ((b & 0x80) == 0)
+					return value;
+			}
+		}
+	}
+
 	public static World readWorld(int worldId) {
-		InputStream is = FileParser.class.getClassLoader().getResourceAsStream(World.getWorldPath(worldId));
 		try {
-			DataInputStream dis = new DataInputStream(is);
-			// first byte = num of levels in world
-			int count = dis.read();
-			// next four (int) - world unlock score
-			int unlockScore = dis.readInt();
-			boolean[] levels = new boolean[count];
-			// read next n bits; tells whether levels are normal or layered
-			int b = 0;
-			int curByte = 0;
-			for (int n = 0; n < count; n++) {
-				if (b == 0)
-					curByte = dis.read();
-				// if the bit is a 0, not layered (false); 1 is true
-				levels[n] = ((curByte >> b) & 1) == 0 ? false : true;
-				b = (b + 1) % 8;
-			}
-			dis.close();
-			return new World(worldId, unlockScore, levels);
-		} catch (IOException e) {
+			Pack pack = getPack(World.getWorldPath(worldId));
+			World world = new World(worldId, pack.unlockScore, pack.levels.clone());
+			if (pack.ratings != null)
+				world.setDifficulties(pack.ratings.clone(), pack.timeLimits.clone(), pack.mistakeCaps.clone());
+			return world;
+		} catch (IOException | IndexOutOfBoundsException e) {
 			e.printStackTrace();
 			return null;
 		}
 	}
-	
+
+	/**
+	 * Returns a world file, loading it the first time it's asked for.
+	 */
+	private static synchronized Pack getPack(String path) throws IOException {
+		Pack pack = packs.get(path);
+		if (pack == null) {
+			try {
+				pack = readPack(path);
+			} catch (IOException | IndexOutOfBoundsException e) {
+				// damaged, so try the copy the build kept of it
+				String backup = path + ".bak";
+				if (FileParser.class.getClassLoader().getResource(backup) == null)
+					throw new IOException(path + ": " + e.getMessage(), e);
+				System.err.println(path + " is damaged (" + e + "), loading " + backup);
+				pack = readPack(backup);
+			}
+			packs.put(path, pack);
+		}
+		return pack;
+	}
+
+	private static Pack readPack(String path) throws IOException {
+		Pack pack = new Pack();
+		pack.data = load(path);
+		Cursor in = new Cursor(pack.data, 0);
+		// first byte = num of levels in world (or 0 for a clue table file)
+		int count = in.readByte();
+		if (count == 0)
+			readTableHeader(in, pack);
+		else
+			readOriginalHeader(in, pack, count);
+		return pack;
+	}
+
+	/**
+	 * Loads a whole world file. A file on disk is mapped; one inside
+	 * a jar is read in one go.
+	 */
+	private static ByteBuffer load(String path) throws IOException {
+		URL url = FileParser.class.getClassLoader().getResource(path);
+		if (url == null)
+			throw new IOException("world file not found: " + path);
+		if ("file".equals(url.getProtocol())) {
+			try (FileChannel channel = FileChannel.open(Paths.get(url.toURI()), StandardOpenOption.READ)) {
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} catch (URISyntaxException e) {
+				// fall back on reading it
+			}
+		}
+		try (InputStream is = url.openStream()) {
+			return ByteBuffer.wrap(is.readAllBytes());
+		}
+	}
+
+	/**
+	 * Reads one bit per level, telling whether each level is layered.
+	 */
+	private static boolean[] readLayeredBits(Cursor in, int count) {
+		boolean[] levels = new boolean[count];
+		// read next n bits; tells whether levels are normal or layered
+		int b = 0;
+		int curByte = 0;
+		for (int n = 0; n < count; n++) {
+			if (b == 0)
+				curByte = in.readByte();
+			// if the bit is a 0, not layered (false); 1 is true
+			levels[n] = ((curByte >> b) & 1) == 0 ? false : true;
+			b = (b + 1) % 8;
+		}
+		return levels;
+	}
+
+	/**
+	 * Reads the header of an original world file, after its count
+	 * byte, and finds where each level starts by stepping over them.
+	 */
+	private static void readOriginalHeader(Cursor in, Pack pack, int count) throws IOException {
+		// next four (int) - world unlock score
+		pack.unlockScore = in.readInt();
+		pack.levels = readLayeredBits(in, count);
+		pack.offsets = new int[count];
+		int pos = in.pos;
+		for (int n = 0; n < count; n++) {
+			pack.offsets[n] = pos;
+			int rows = pack.data.get(pos) & 0xff;
+			int cols = pack.data.get(pos + 1) & 0xff;
+			checkSize(rows, cols, n);
+			// row * col bits (padded) for one layer, times three if layered
+			pos += 2 + (rows * cols + 7) / 8 * (pack.levels[n] ? NUM_LAYERS : 1);
+		}
+		in.pos = pos;
+		// only a section of just the right length: some original
+		// files have other bytes after the levels
+		if (pack.data.limit() - pos == DIFFICULTY_BYTES * count)
+			readDifficulties(in, pack);
+	}
+
+	/**
+	 * Reads a difficulty section: in a clue table file it's part of
+	 * the header, and in an original one it may follow the levels.
+	 * Each level has a rating byte, a two byte time limit in
+	 * seconds, and a mistake cap byte.
+	 */
+	private static void readDifficulties(Cursor in, Pack pack) {
+		int count = pack.levels.length;
+		pack.ratings = new int[count];
+		pack.timeLimits = new int[count];
+		pack.mistakeCaps = new int[count];
+		for (int n = 0; n < count; n++) {
+			pack.ratings[n] = in.readByte();
+			pack.timeLimits[n] = in.readShort();
+			pack.mistakeCaps[n] = in.readByte();
+		}
+	}
+
+	/**
+	 * Reads the header of a clue table file, after its zero byte,
+	 * and finds where each level's record starts.
+	 */
+	private static void readTableHeader(Cursor in, Pack pack) throws IOException {
+		int version = in.readByte();
+		if (version < 1 || version > TABLE_VERSION)
+			throw new IOException("unsupported world file version " + version);
+		pack.table = true;
+		pack.version = version;
+		int count = in.readShort();
+		pack.unlockScore = in.readInt();
+		pack.levels = readLayeredBits(in, count);
+		readDifficulties(in, pack);
+		pack.offsets = new int[count];
+		if (version >= OFFSETS_VERSION) {
+			// each offset is of a record's length, which comes before its rows byte
+			for (int n = 0; n < count; n++)
+				pack.offsets[n] = in.readInt() + 4;
+			if (version >= CHECKSUM_VERSION)
+				verify(pack, in.pos);
+		}
+		else {
+			// step over whole records
+			int pos = in.pos;
+			for (int n = 0; n < count; n++) {
+				pack.offsets[n] = pos + 4;
+				pos += 4 + pack.data.getInt(pos);
+			}
+		}
+		for (int n = 0; n < count; n++) {
+			int pos = pack.offsets[n];
+			checkSize(pack.data.get(pos) & 0xff, pack.data.get(pos + 1) & 0xff, n);
+		}
+	}
+
+	/**
+	 * Checks a level's size, so a damaged one can't stall decoding.
+	 * @param n The level's number.
+	 */
+	private static void checkSize(int rows, int cols, int n) throws IOException {
+		if (rows <= 0 || cols <= 0)
+			throw new IOException("level " + n + " is " + rows + "x" + cols);
+	}
+
+	/**
+	 * Checks a pack's header checksum, then each record's.
+	 * @param pack The pack, with its offsets read.
+	 * @param headerEnd Where the header's checksum is.
+	 */
+	private static void verify(Pack pack, int headerEnd) throws IOException {
+		CRC32C crc = new CRC32C();
+		checkSection(pack.data, crc, 0, headerEnd);
+		for (int n = 0; n < pack.offsets.length; n++) {
+			int start = pack.offsets[n];
+			checkSection(pack.data, crc, start, start + pack.data.getInt(start - 4));
+		}
+	}
+
+	/**
+	 * Checks a section's checksum, which follows it.
+	 */
+	private static void checkSection(ByteBuffer data, CRC32C crc, int start, int end) throws IOException {
+		if (start < 0 || end < start || end + 4 > data.limit())
+			throw new IOException("section out of bounds at " + start);
+		// a view of the section, so the shared buffer's position is left alone
+		ByteBuffer section = data.duplicate();
+		section.limit(end).position(start);
+		crc.reset();
+		crc.update(section);
+		if ((int) crc.getValue() != data.getInt(end))
+			throw new IOException("checksum mismatch at " + start);
+	}
+
 	public static Level readLevel(int levelId, int worldId) {
-		InputStream is = FileParser.class.getClassLoader().getResourceAsStream(World.getWorldPath(worldId));
 		try {
-			DataInputStream dis = new DataInputStream(is);
+			Pack pack = getPack(World.getWorldPath(worldId));
 			World world = World.getWorld(worldId);
-			// don't care about header bytes, will skip past them
-			// 1 byte for level count + 4 for unlock score, and n puzzle bits (padded)
-			int metaBytes = 1 + 4 + (int) Math.ceil(world.getLevelCount() / 8.0);
-			if (dis.skipBytes(metaBytes) != metaBytes) {
-				dis.close();
-				return null; // skip bytes failed (shouldn't happen)
-			}
-			boolean[] levels = world.getLevels();
-			// start reading levels from here, until the nth level
-			for (int n = 0; n < levelId; n++) {
-				// skip the number of bytes this level contains
-				int rows = dis.read();
-				int cols = dis.read();
-				// row * col bits (padded) for one layer, times three if layered
-				int numBytes = /*2 +*/ (int) Math.ceil(rows * cols / 8.0) * (levels[n] ? 3 : 1);
-				if (dis.skipBytes(numBytes) != numBytes) {
-					dis.close();
-					return null; // skip bytes failed (shouldn't happen)
-				}
-			}
-			// now have skipped enough bytes to be aligned at the desired level id
-			// if this level is layered, use read layered function, else read normal, save result
-			Level theOne = levels[levelId] ? readOneLayeredLevel(dis, levelId) : readOneNormalLevel(dis, levelId);
-			dis.close();
+			Cursor in = new Cursor(pack.data, pack.offsets[levelId]);
+			boolean layered = pack.levels[levelId];
+			Level theOne = pack.table ? readTableLevel(in, pack.version, layered, levelId) : readOriginalLevel(in, layered, levelId);
+			if (world.hasDifficulties())
+				theOne.setDifficulty(world.getRating(levelId), world.getTimeLimit(levelId), world.getMistakeCap(levelId));
 			return theOne;
-		} catch (IOException e) {
+		} catch (IOException | IndexOutOfBoundsException e) {
 			e.printStackTrace();
 			return null;
 		}
 	}
-	
-	private static Level readOneNormalLevel(DataInputStream dis, int id) throws IOException {
-		int rows = dis.read();
-		int cols = dis.read();
-		//int time = dis.read();
-		//int mistakes = dis.read();
-		boolean[][] solution = new boolean[rows][cols];
-		int b = 0;
-		int curByte = 0;
+
+	/**
+	 * Reads a level from an original world file, at its rows byte.
+	 */
+	private static Level readOriginalLevel(Cursor in, boolean layered, int levelId) {
+		int rows = in.readByte();
+		int cols = in.readByte();
+		PuzzleDefinition[] layers = new PuzzleDefinition[layered ? NUM_LAYERS : 1];
+		for (int p = 0; p < layers.length; p++)
+			layers[p] = new PuzzleDefinition(readSolution(in, rows, cols));
+		return new Level(layers, levelId);
+	}
+
+	/**
+	 * Reads a level from a clue table file, at its rows byte.
+	 */
+	private static Level readTableLevel(Cursor in, int version, boolean layered, int levelId) throws IOException {
+		int rows = in.readByte();
+		int cols = in.readByte();
+		int encoding = version >= RUNS_VERSION ? in.readByte() : SOLUTION_BITS;
+		if (encoding != SOLUTION_BITS && encoding != SOLUTION_RUNS)
+			throw new IOException("unknown solution encoding " + encoding);
+		PuzzleDefinition[] layers = new PuzzleDefinition[layered ? NUM_LAYERS : 1];
+		for (int p = 0; p < layers.length; p++) {
+			BitGrid solution = encoding == SOLUTION_RUNS ? readRuns(in, rows, cols) : readSolution(in, rows, cols);
+			int filledCells = in.readVarInt();
+			int[][] rowClues = readClues(in, rows);
+			int[][] colClues = readClues(in, cols);
+			layers[p] = new PuzzleDefinition(solution, rowClues, colClues, filledCells);
+		}
+		return new Level(layers, levelId);
+	}
+
+	/**
+	 * Reads the clue lists of a number of lines.
+	 */
+	private static int[][] readClues(Cursor in, int lines) {
+		int[][] clues = new int[lines][];
+		for (int i = 0; i < lines; i++) {
+			clues[i] = new int[in.readVarInt()];
+			for (int j = 0; j < clues[i].length; j++)
+				clues[i][j] = in.readVarInt();
+		}
+		return clues;
+	}
+
+	/**
+	 * Reads one layer's solution bits (padded to a byte), a word
+	 * at a time, straight into the rows of a grid.
+	 */
+	private static BitGrid readSolution(Cursor in, int rows, int cols) {
+		BitGrid solution = new BitGrid(rows, cols);
+		long[] words = new long[BitGrid.words(cols)];
+		int start = in.pos * 8;
 		for (int r = 0; r < rows; r++) {
-			for (int c = 0; c < cols; c++) {
-				if (b == 0)
-					curByte = dis.read();
-				solution[r][c] = ((curByte >> b) & 1) == 0 ? false : true;
-				b = (b + 1) % 8;
-			}
+			for (int w = 0; w < words.length; w++)
+				words[w] = getBits(in.data, start + r * cols + w * 64);
+			// bits past the row's end are masked off here
+			solution.setRow(r, words);
 		}
-		return new Level(new Puzzle(solution), id);
-	}
-	
-	private static Level readOneLayeredLevel(DataInputStream dis, int id) throws IOException {
-		int rows = dis.read();
-		int cols = dis.read();
-		//int time = dis.read();
-		//int mistakes = dis.read();
-		Puzzle[] layers = new Puzzle[NUM_LAYERS];
-		for (int p = 0; p < NUM_LAYERS; p++) {
-			boolean[][] solution = new boolean[rows][cols];
-			int b = 0;
-			int curByte = 0;
-			for (int r = 0; r < rows; r++) {
-				for (int c = 0; c < cols; c++) {
-					if (b == 0)
-						curByte = dis.read();
-					solution[r][c] = ((curByte >> b) & 1) == 0 ? false : true;
-					b = (b + 1) % 8;
+		in.pos += (rows * cols + 7) / 8;
+		return solution;
+	}
+
+	/**
+	 * Reads one layer's solution stored as runs: the lengths (varints)
+	 * of alternating runs of empty and filled cells, going through
+	 * the rows in order, starting with an empty run (maybe of zero).
+	 * Each run is set straight into the words of its row.
+	 */
+	private static BitGrid readRuns(Cursor in, int rows, int cols) {
+		BitGrid solution = new BitGrid(rows, cols);
+		long[] words = new long[BitGrid.words(cols)];
+		int r = 0;
+		int c = 0;
+		boolean filled = false;
+		while (r < rows) {
+			int run = in.readVarInt();
+			// a run can go on over several rows
+			while (run > 0) {
+				int n = Math.min(run, cols - c);
+				if (filled)
+					BitGrid.setRange(words, c, c + n);
+				c += n;
+				run -= n;
+				if (c == cols) {
+					solution.setRow(r++, words);
+					Arrays.fill(words, 0);
+					c = 0;
 				}
 			}
-			layers[p] = new Puzzle(solution);
+			filled = !filled;
+		}
+		return solution;
+	}
+
+	/**
+	 * Gets the 64 bits starting at a bit, counting each byte's
+	 * low bit first. Bits past the end of the buffer are zero.
+	 * @param data The buffer.
+	 * @param bit The first bit's position in the buffer.
+	 * @return The bits, the first one lowest.
+	 */
+	private static long getBits(ByteBuffer data, int bit) {
+		int i = bit >>> 3;
+		int shift = bit & 7;
+		int limit = data.limit();
+		long word = 0;
+		if (i + Long.BYTES <= limit)
+			word = Long.reverseBytes(data.getLong(i));
+		else {
+			for (int k = 0; i + k < limit; k++)
+				word |= (long) (data.get(i + k) & 0xff) << (k * 8);
 		}
-		return new Level(layers, id);
+		word >>>= shift;
+		// the top bits come from the next byte
+		if (shift != 0 && i + Long.BYTES < limit)
+			word |= (long) (data.get(i + Long.BYTES) & 0xff) << (64 - shift);
+		return word;
 	}
 
 }
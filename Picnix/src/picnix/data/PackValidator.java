@@ -0,0 +1,172 @@
+package picnix.data;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import picnix.Level;
+import picnix.World;
+import picnix.puzzle.PuzzleDefinition;
+import picnix.solver.Rater;
+import picnix.solver.Solver;
+import picnix.solver.UniquenessChecker;
+
+/**
+ * A headless tool that decodes every level of every world
+ * pack and validates them in parallel, printing a JSON
+ * report with one entry per puzzle (layer).
+ *
+ * Usage: PackValidator [report file] [threads]
+ */
+public class PackValidator {
+
+	// one unit of work: a single level of a single world
+	private static class LevelJob {
+		int worldId;
+		int levelId;
+		String[] entries;
+		String error;
+	}
+
+	/**
+	 * Splits a range of jobs in half until a single level
+	 * remains, so idle workers can steal the other halves.
+	 */
+	private static class ValidateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private LevelJob[] jobs;
+		private int low, high;
+
+		ValidateTask(LevelJob[] jobs, int low, int high) {
+			this.jobs = jobs;
+			this.low = low;
+			this.high = high;
+		}
+
+		@Override
+		protected void compute() {
+			if (high - low == 1) {
+				validate(jobs[low]);
+				return;
+			}
+			int mid = (low + high) >>> 1;
+			invokeAll(new ValidateTask(jobs, low, mid), new ValidateTask(jobs, mid, high));
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		World.loadWorlds();
+		// enumerate every level of every world
+		ArrayList<LevelJob> jobList = new ArrayList<LevelJob>();
+		for (int w = 0; w < World.NUM_WORLDS; w++) {
+			World world = World.getWorld(w);
+			if (world == null)
+				continue;
+			for (int l = 0; l < world.getLevelCount(); l++) {
+				LevelJob job = new LevelJob();
+				job.worldId = w;
+				job.levelId = l;
+				jobList.add(job);
+			}
+		}
+		LevelJob[] jobs = jobList.toArray(new LevelJob[jobList.size()]);
+		long start = System.nanoTime();
+		if (jobs.length > 0) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			pool.invoke(new ValidateTask(jobs, 0, jobs.length));
+			pool.shutdown();
+		}
+		long wallMicros = (System.nanoTime() - start) / 1000;
+		// write the report, in level order
+		OutputStream os = args.length > 0 ? new FileOutputStream(args[0]) : System.out;
+		PrintStream out = new PrintStream(os);
+		int failures = writeReport(out, jobs, threads, wallMicros);
+		out.flush();
+		if (os != System.out)
+			out.close();
+		System.err.println(jobs.length + " levels validated on " + threads + " threads in "
+				+ (wallMicros / 1000) + " ms, " + failures + " problem(s)");
+	}
+
+	private static void validate(LevelJob job) {
+		Level level = FileParser.readLevel(job.levelId, job.worldId);
+		if (level == null) {
+			job.error = "could not decode level";
+			return;
+		}
+		PuzzleDefinition[] layers = level.getDefinitions();
+		job.entries = new String[layers.length];
+		for (int p = 0; p < layers.length; p++) {
+			PuzzleDefinition puzzle = layers[p];
+			// plain line propagation, for solve time and depth
+			Solver solver = new Solver(puzzle);
+			int solved = solver.solve();
+			// full uniqueness check (propagation + backtracking)
+			UniquenessChecker checker = new UniquenessChecker(puzzle);
+			int unique = checker.check();
+			// difficulty, as the world builder rates it
+			Rater rater = new Rater(puzzle);
+			int rating = rater.rate();
+			StringBuilder sb = new StringBuilder();
+			sb.append("{\"world\": ").append(job.worldId);
+			sb.append(", \"file\": \"").append(World.getWorldPath(job.worldId)).append('"');
+			sb.append(", \"level\": ").append(job.levelId);
+			sb.append(", \"layer\": ").append(layers.length > 1 ? p : -1);
+			sb.append(", \"rows\": ").append(puzzle.getRows());
+			sb.append(", \"cols\": ").append(puzzle.getColumns());
+			sb.append(", \"uniqueness\": \"").append(UniquenessChecker.getResultName(unique)).append('"');
+			sb.append(", \"lineSolvable\": ").append(solved == Solver.SOLVED);
+			sb.append(", \"passes\": ").append(solver.getPasses());
+			sb.append(", \"lineSolves\": ").append(solver.getLineSolves());
+			sb.append(", \"deduced\": ").append(solver.getDeducedCells());
+			sb.append(", \"solveMicros\": ").append(solver.getSolveNanos() / 1000.0);
+			sb.append(", \"guesses\": ").append(checker.getGuesses());
+			sb.append(", \"searchDepth\": ").append(checker.getMaxDepth());
+			sb.append(", \"checkMicros\": ").append(checker.getCheckNanos() / 1000.0);
+			sb.append(", \"rating\": ").append(rating);
+			sb.append(", \"technique\": \"").append(Rater.getTechniqueName(rater.getTechnique())).append('"');
+			sb.append(", \"branching\": ").append(rater.getBranching());
+			sb.append('}');
+			job.entries[p] = sb.toString();
+			if (unique != UniquenessChecker.UNIQUE && job.error == null)
+				job.error = UniquenessChecker.getResultName(unique);
+		}
+	}
+
+	private static int writeReport(PrintStream out, LevelJob[] jobs, int threads, long wallMicros) {
+		int failures = 0;
+		out.println("{");
+		out.println("  \"threads\": " + threads + ",");
+		out.println("  \"wallMicros\": " + wallMicros + ",");
+		out.println("  \"levels\": [");
+		boolean first = true;
+		for (LevelJob job : jobs) {
+			if (job.error != null)
+				failures++;
+			if (job.entries == null) {
+				out.print(first ? "    " : ",\n    ");
+				out.print("{\"world\": " + job.worldId + ", \"level\": " + job.levelId
+						+ ", \"error\": \"" + job.error + "\"}");
+				first = false;
+				continue;
+			}
+			for (String entry : job.entries) {
+				out.print(first ? "    " : ",\n    ");
+				out.print(entry);
+				first = false;
+			}
+		}
+		out.println();
+		out.println("  ],");
+		out.println("  \"problems\": " + failures);
+		out.println("}");
+		return failures;
+	}
+
+}
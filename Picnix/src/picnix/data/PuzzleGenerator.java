@@ -0,0 +1,173 @@
+package picnix.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import picnix.puzzle.PuzzleDefinition;
+import picnix.solver.UniquenessChecker;
+
+/**
+ * Generates random puzzles that have exactly one solution.
+ *
+ * Puzzle number k of a generator depends only on the seed, size,
+ * density and k, so packs can be rebuilt exactly, no matter how
+ * many threads generate them. A candidate with several solutions
+ * is repaired by flipping a cell where two of its solutions differ,
+ * which usually breaks the ambiguity within a few tries.
+ *
+ * Usage: PuzzleGenerator seed rows cols density count [threads] [output dir]
+ */
+public class PuzzleGenerator {
+
+	// repairs to try on a candidate before starting a fresh one
+	private static final int MAX_REPAIRS = 20;
+	// guess limit for each uniqueness check; candidates needing
+	// more than this are thrown out rather than searched further
+	private static final int MAX_GUESSES = 2_000;
+
+	private long seed;
+	private int rows;
+	private int columns;
+	private double density;
+
+	/**
+	 * Creates a generator.
+	 * @param seed The seed every puzzle is derived from.
+	 * @param rows The number of rows in each puzzle.
+	 * @param columns The number of columns in each puzzle.
+	 * @param density The chance of each cell being filled, before repairs.
+	 */
+	public PuzzleGenerator(long seed, int rows, int columns, double density) {
+		this.seed = seed;
+		this.rows = rows;
+		this.columns = columns;
+		this.density = density;
+	}
+
+	/**
+	 * Generates one uniquely solvable puzzle.
+	 * @param index Which puzzle of this generator to make.
+	 * @return The puzzle's solution grid.
+	 */
+	public boolean[][] generate(int index) {
+		SplittableRandom random = new SplittableRandom(mix(seed + index * 0x9E3779B97F4A7C15L));
+		boolean[][] grid = new boolean[rows][columns];
+		while (true) {
+			for (int r = 0; r < rows; r++)
+				for (int c = 0; c < columns; c++)
+					grid[r][c] = random.nextDouble() < density;
+			for (int repair = 0; repair <= MAX_REPAIRS; repair++) {
+				UniquenessChecker checker = new UniquenessChecker(new PuzzleDefinition(grid));
+				checker.setMaxGuesses(MAX_GUESSES);
+				int result = checker.check();
+				if (result == UniquenessChecker.UNIQUE)
+					return grid;
+				if (result != UniquenessChecker.MULTIPLE)
+					break; // too hard to decide - start over
+				flipDifference(grid, checker.getCounterExample(), random);
+			}
+		}
+	}
+
+	/**
+	 * Flips a random cell where the grid and another solution differ.
+	 */
+	private static void flipDifference(boolean[][] grid, boolean[][] other, SplittableRandom random) {
+		int differences = 0;
+		for (int r = 0; r < grid.length; r++)
+			for (int c = 0; c < grid[r].length; c++)
+				if (grid[r][c] != other[r][c])
+					differences++;
+		int pick = random.nextInt(differences);
+		for (int r = 0; r < grid.length; r++) {
+			for (int c = 0; c < grid[r].length; c++) {
+				if (grid[r][c] != other[r][c] && pick-- == 0) {
+					grid[r][c] = !grid[r][c];
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Generates a run of puzzles in parallel.
+	 * @param count The number of puzzles.
+	 * @param threads The number of worker threads.
+	 * @return The solution grids of puzzles 0 to count - 1.
+	 */
+	public boolean[][][] generate(int count, int threads) {
+		boolean[][][] grids = new boolean[count][][];
+		if (count == 0)
+			return grids;
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		pool.invoke(new GenerateTask(grids, 0, count));
+		pool.shutdown();
+		return grids;
+	}
+
+	/**
+	 * Splits a range of puzzles in half until a single puzzle
+	 * remains, so idle workers can steal the other halves.
+	 */
+	private class GenerateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private boolean[][][] grids;
+		private int low, high;
+
+		GenerateTask(boolean[][][] grids, int low, int high) {
+			this.grids = grids;
+			this.low = low;
+			this.high = high;
+		}
+
+		@Override
+		protected void compute() {
+			if (high - low == 1) {
+				grids[low] = generate(low);
+				return;
+			}
+			int mid = (low + high) >>> 1;
+			invokeAll(new GenerateTask(grids, low, mid), new GenerateTask(grids, mid, high));
+		}
+	}
+
+	/**
+	 * Scrambles a seed (SplitMix64's finalizer), so nearby
+	 * indices get unrelated random streams.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 5) {
+			System.err.println("usage: PuzzleGenerator seed rows cols density count [threads] [output dir]");
+			return;
+		}
+		long seed = Long.parseLong(args[0]);
+		int rows = Integer.parseInt(args[1]);
+		int cols = Integer.parseInt(args[2]);
+		double density = Double.parseDouble(args[3]);
+		int count = Integer.parseInt(args[4]);
+		int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+		PuzzleGenerator generator = new PuzzleGenerator(seed, rows, cols, density);
+		long start = System.nanoTime();
+		boolean[][][] grids = generator.generate(count, threads);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.println(count + " unique " + rows + "x" + cols + " puzzles on " + threads + " threads in "
+				+ String.format("%.2f", seconds) + " s (" + String.format("%.1f", count / seconds) + " per second)");
+		if (args.length > 6) {
+			File outdir = new File(args[6]);
+			outdir.mkdirs();
+			for (int i = 0; i < count; i++)
+				FileGenerator.writeLevel(new File(outdir, String.format("gen%05d.puz", i)), new boolean[][][] {grids[i]});
+		}
+	}
+
+}
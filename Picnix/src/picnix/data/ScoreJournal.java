@@ -0,0 +1,295 @@
+package picnix.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32C;
+
+/**
+ * Writes score changes to disk behind the game's back.
+ *
+ * Each change is appended to a journal next to the save file: a magic
+ * number and version byte, then a record per change holding the world
+ * (short), the level (short), the score (int) and a CRC-32C of those.
+ * A change names its world and level, so worlds and levels added later
+ * don't upset old journals. Changes are written by one background
+ * thread, which takes every change waiting at once and syncs the file
+ * once for all of them. Every so often (and when the game starts) the
+ * journal is folded into the save file, which is then replaced by an
+ * atomic rename, and a fresh journal is swapped in the same way.
+ *
+ * The game thread only hands changes over, so it never waits on disk.
+ */
+public class ScoreJournal {
+
+	// "PXJN"
+	private static final int MAGIC = 0x50584A4E;
+	public static final int VERSION = 1;
+	private static final int HEADER_BYTES = 4 + 1;
+	private static final int RECORD_BYTES = 2 + 2 + 4 + 4;
+
+	// records to gather before folding the journal into the save file
+	private static final int COMPACT_RECORDS = 512;
+	// how long to wait for the last changes to be written on exit
+	private static final long CLOSE_TIMEOUT_MS = 2000;
+	// failures in a row before the writer gives up, and the first wait
+	// between tries (doubled each time)
+	private static final int MAX_FAILURES = 5;
+	private static final long RETRY_DELAY_MS = 250;
+
+	// tells the writer to finish up
+	private static final int[] STOP = new int[0];
+
+	private File file;
+	// the writer's own copy of the scores, as they are on disk
+	private int[][] scores;
+	private LinkedBlockingQueue<int[]> queue = new LinkedBlockingQueue<int[]>();
+	private Thread writer;
+
+	private FileChannel channel;
+	private int records;
+	// set when the writer has given up
+	private volatile boolean failed;
+	// changes handed over, and how many of them are on disk (guarded by this)
+	private long recorded;
+	private long saved;
+	// changes the writer has applied to its scores
+	private long applied;
+
+	/**
+	 * Creates a journal, and starts its writer. The writer first folds
+	 * the journal (as it was replayed) into the save file.
+	 * @param file The journal file.
+	 * @param scores The scores, as loaded. They are copied.
+	 */
+	public ScoreJournal(File file, int[][] scores) {
+		this.file = file;
+		this.scores = new int[scores.length][];
+		for (int i = 0; i < scores.length; i++)
+			this.scores[i] = scores[i].clone();
+		writer = new Thread(this::run, "score writer");
+		writer.setDaemon(true);
+		writer.start();
+		// so the last changes aren't lost when the game exits
+		Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+	}
+
+	/**
+	 * Hands a score change to the writer.
+	 * @param worldId The level's world.
+	 * @param levelId The level.
+	 * @param score The level's new score.
+	 */
+	public void record(int worldId, int levelId, int score) {
+		if (failed)
+			return;
+		synchronized (this) {
+			recorded++;
+		}
+		queue.add(new int[] {worldId, levelId, score});
+	}
+	
+	/**
+	 * Waits until every change handed over so far is on disk,
+	 * or the writer has given up.
+	 */
+	public synchronized void flush() throws InterruptedException {
+		long target = recorded;
+		while (saved < target && !failed)
+			wait();
+	}
+	
+	/**
+	 * @return True if the writer has given up, so changes
+	 * are no longer being saved.
+	 */
+	public boolean hasFailed() {
+		return failed;
+	}
+
+	/**
+	 * Writes every change handed over so far and stops the writer,
+	 * waiting a little while for it.
+	 */
+	public void close() {
+		if (!writer.isAlive())
+			return;
+		queue.add(STOP);
+		try {
+			writer.join(CLOSE_TIMEOUT_MS);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * The writer's loop: writes each batch of changes, syncing once per batch.
+	 * If writing fails, the journal may be torn, so the writer folds every
+	 * change so far into the save file instead, and tries that again a few
+	 * times (waiting longer each time) before giving up.
+	 */
+	private void run() {
+		ArrayList<int[]> batch = new ArrayList<int[]>();
+		boolean stopping = false;
+		// the first compaction also opens the journal
+		boolean compacting = true;
+		int failures = 0;
+		try {
+			while (true) {
+				try {
+					if (compacting) {
+						compact();
+						compacting = false;
+					}
+					if (stopping)
+						break;
+					batch.add(queue.take());
+					queue.drainTo(batch);
+					// noted first, so a failed write can't lose it
+					stopping = batch.contains(STOP);
+					writeBatch(batch);
+					if (records >= COMPACT_RECORDS)
+						compacting = true;
+					failures = 0;
+				} catch (IOException e) {
+					// the batch is in the scores already, so a compaction saves it
+					batch.clear();
+					compacting = true;
+					if (++failures >= MAX_FAILURES) {
+						fail(e);
+						return;
+					}
+					System.err.println(file + ": " + e + ", trying again");
+					Thread.sleep(RETRY_DELAY_MS << (failures - 1));
+				}
+			}
+			channel.close();
+		} catch (IOException | InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Applies a batch of changes to the writer's scores, then appends
+	 * them to the journal and syncs it. A stop request is skipped.
+	 */
+	private void writeBatch(ArrayList<int[]> batch) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(batch.size() * RECORD_BYTES);
+		CRC32C crc = new CRC32C();
+		int count = 0;
+		for (int[] change : batch) {
+			if (change == STOP)
+				continue;
+			scores[change[0]][change[1]] = change[2];
+			applied++;
+			int start = bytes.position();
+			bytes.putShort((short) change[0]).putShort((short) change[1]).putInt(change[2]);
+			crc.reset();
+			crc.update(bytes.array(), start, RECORD_BYTES - 4);
+			bytes.putInt((int) crc.getValue());
+			count++;
+		}
+		batch.clear();
+		if (count == 0)
+			return;
+		bytes.flip();
+		while (bytes.hasRemaining())
+			channel.write(bytes);
+		channel.force(false);
+		records += count;
+		markSaved();
+	}
+	
+	/**
+	 * Notes that every change applied so far is on disk.
+	 */
+	private synchronized void markSaved() {
+		saved = applied;
+		notifyAll();
+	}
+	
+	/**
+	 * Stops taking changes, after the writer has given up.
+	 */
+	private void fail(IOException e) {
+		failed = true;
+		queue.clear();
+		synchronized (this) {
+			notifyAll();
+		}
+		e.printStackTrace();
+		System.err.println(file + ": giving up, score changes are no longer saved");
+	}
+	
+	/**
+	 * Folds the journal into the save file, then starts a fresh one.
+	 * If this is cut short, the old journal is replayed over the new
+	 * save file next time, which gives the same scores.
+	 */
+	private void compact() throws IOException {
+		UserData.writeSave(scores);
+		File temp = new File(file.getPath() + ".tmp");
+		FileChannel fresh = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putInt(MAGIC).put((byte) VERSION).flip();
+		fresh.write(header);
+		fresh.force(true);
+		fresh.close();
+		if (channel != null)
+			channel.close();
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		records = 0;
+		// the save file has every change so far
+		markSaved();
+	}
+
+	/**
+	 * Applies a journal's changes to loaded scores. Reading stops at the
+	 * first record that is cut short or fails its checksum, which is
+	 * where writing stopped. Changes to levels that no longer exist are
+	 * skipped.
+	 * @param file The journal file.
+	 * @param scores The scores to apply the changes to.
+	 * @return The number of changes read.
+	 */
+	public static int replay(File file, int[][] scores) {
+		if (!file.exists())
+			return 0;
+		try {
+			ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+			if (data.remaining() < HEADER_BYTES || data.getInt() != MAGIC)
+				throw new IOException("not a journal");
+			int version = data.get();
+			if (version != VERSION)
+				throw new IOException("unsupported journal version " + version);
+			CRC32C crc = new CRC32C();
+			int count = 0;
+			while (data.remaining() >= RECORD_BYTES) {
+				int start = data.position();
+				crc.reset();
+				crc.update(data.array(), start, RECORD_BYTES - 4);
+				int worldId = data.getShort() & 0xffff;
+				int levelId = data.getShort() & 0xffff;
+				int score = data.getInt();
+				if ((int) crc.getValue() != data.getInt())
+					break;
+				if (worldId < scores.length && levelId < scores[worldId].length)
+					scores[worldId][levelId] = score;
+				count++;
+			}
+			return count;
+		} catch (IOException e) {
+			System.err.println(file + ": " + e);
+			return 0;
+		}
+	}
+
+}
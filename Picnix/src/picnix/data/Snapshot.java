@@ -0,0 +1,212 @@
+package picnix.data;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import picnix.puzzle.Puzzle;
+
+/**
+ * Stores snapshots of unfinished puzzles, so a level that is left
+ * part way through can be picked up where it was left.
+ *
+ * A snapshot is made on the game thread (see PuzzleState), then handed
+ * here as bytes. Files are written by one background thread, in order,
+ * each to a temporary file which then replaces the old snapshot. Until
+ * a snapshot is on disk it is kept in memory, so loading it straight
+ * after saving still finds it.
+ */
+public class Snapshot {
+
+	public static final int VERSION = 1;
+	// where snapshots are saved, next to the user data
+	private static final String SNAPSHOT_DIR = "saves";
+
+	// the marks stored for each layer, one bit plane each
+	private static final int[] MARK_PLANES = {Puzzle.FILLED, Puzzle.FLAGGED, Puzzle.MAYBE_FILLED, Puzzle.MAYBE_FLAGGED};
+
+	// snapshots waiting to be written, by file name (or an empty array to delete)
+	private static ConcurrentHashMap<String, byte[]> pending = new ConcurrentHashMap<String, byte[]>();
+	private static ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "snapshot writer");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private static String getName(int worldId, int levelId) {
+		return "w" + worldId + "-l" + levelId + ".snap";
+	}
+
+	/**
+	 * Saves a level's snapshot in the background, replacing any older one.
+	 * @param worldId The level's world.
+	 * @param levelId The level.
+	 * @param data The snapshot.
+	 */
+	public static void save(int worldId, int levelId, byte[] data) {
+		String name = getName(worldId, levelId);
+		pending.put(name, data);
+		writer.execute(() -> flush(name, data));
+	}
+
+	/**
+	 * Deletes a level's snapshot in the background, if it has one.
+	 * @param worldId The level's world.
+	 * @param levelId The level.
+	 */
+	public static void delete(int worldId, int levelId) {
+		String name = getName(worldId, levelId);
+		byte[] none = new byte[0];
+		pending.put(name, none);
+		writer.execute(() -> flush(name, none));
+	}
+
+	/**
+	 * Writes (or deletes) a snapshot file, on the writer thread.
+	 */
+	private static void flush(String name, byte[] data) {
+		File dir = new File(SNAPSHOT_DIR);
+		File file = new File(dir, name);
+		try {
+			if (data.length == 0)
+				Files.deleteIfExists(file.toPath());
+			else {
+				dir.mkdirs();
+				File temp = new File(dir, name + ".tmp");
+				FileOutputStream fos = new FileOutputStream(temp);
+				fos.write(data);
+				fos.close();
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		// only forget it if no newer snapshot came in meanwhile
+		pending.remove(name, data);
+	}
+
+	/**
+	 * Loads a level's snapshot in one read.
+	 * @param worldId The level's world.
+	 * @param levelId The level.
+	 * @return The snapshot, or null if the level has none.
+	 */
+	public static byte[] load(int worldId, int levelId) {
+		String name = getName(worldId, levelId);
+		byte[] data = pending.get(name);
+		if (data != null)
+			return data.length == 0 ? null : data;
+		File file = new File(SNAPSHOT_DIR, name);
+		if (!file.exists())
+			return null;
+		try {
+			return Files.readAllBytes(file.toPath());
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Writes a puzzle's marks, as one bit plane for each kind of
+	 * mark. Each row of a plane is its words' bytes, low bits first.
+	 */
+	public static void writeMarks(DataOutputStream dos, Puzzle puzzle) throws IOException {
+		int rows = puzzle.getRows();
+		int rowBytes = (puzzle.getColumns() + 7) / 8;
+		for (int p = 0; p < MARK_PLANES.length; p++) {
+			for (int r = 0; r < rows; r++) {
+				long[] words = puzzle.getMarkLine(MARK_PLANES[p], true, r);
+				for (int i = 0; i < rowBytes; i++)
+					dos.write((int) (words[i >> 3] >>> ((i & 7) << 3)));
+			}
+		}
+	}
+
+	/**
+	 * Reads marks written by {@link #writeMarks}, without using them yet.
+	 * @param rows The puzzle's rows.
+	 * @param cols The puzzle's columns.
+	 * @return The marks' bit planes, for {@link #applyMarks}.
+	 */
+	public static byte[] readMarks(DataInputStream dis, int rows, int cols) throws IOException {
+		int rowBytes = (cols + 7) / 8;
+		byte[] marks = new byte[MARK_PLANES.length * rows * rowBytes];
+		dis.readFully(marks);
+		// bits past the end of a row would mark cells off the board
+		int padding = cols % 8 == 0 ? 0 : 0xff << (cols % 8) & 0xff;
+		for (int i = rowBytes - 1; i < marks.length; i += rowBytes)
+			if ((marks[i] & padding) != 0)
+				throw new IOException("marks past the end of a row");
+		return marks;
+	}
+
+	/**
+	 * Puts marks read by {@link #readMarks} onto an unmarked puzzle.
+	 */
+	public static void applyMarks(byte[] marks, Puzzle puzzle) {
+		int rows = puzzle.getRows();
+		int rowBytes = (puzzle.getColumns() + 7) / 8;
+		int pos = 0;
+		puzzle.beginBatch();
+		for (int p = 0; p < MARK_PLANES.length; p++) {
+			for (int r = 0; r < rows; r++) {
+				for (int i = 0; i < rowBytes; i++) {
+					// mark each set bit of the byte
+					int bits = marks[pos++] & 0xff;
+					while (bits != 0) {
+						int b = Integer.numberOfTrailingZeros(bits);
+						puzzle.markSpot(r, (i << 3) + b, MARK_PLANES[p]);
+						bits &= bits - 1;
+					}
+				}
+			}
+		}
+		puzzle.commitBatch();
+	}
+
+	/**
+	 * Writes a grid of flags, padded to a byte.
+	 */
+	public static void writeBits(DataOutputStream dos, boolean[][] grid) throws IOException {
+		int b = 0;
+		int curByte = 0;
+		for (int r = 0; r < grid.length; r++) {
+			for (int c = 0; c < grid[r].length; c++) {
+				if (grid[r][c])
+					curByte |= 1 << b;
+				if (++b == 8) {
+					dos.write(curByte);
+					b = 0;
+					curByte = 0;
+				}
+			}
+		}
+		if (b != 0)
+			dos.write(curByte);
+	}
+
+	/**
+	 * Reads a grid of flags written by {@link #writeBits} into a grid.
+	 */
+	public static void readBits(DataInputStream dis, boolean[][] grid) throws IOException {
+		int b = 0;
+		int curByte = 0;
+		for (int r = 0; r < grid.length; r++) {
+			for (int c = 0; c < grid[r].length; c++) {
+				if (b == 0)
+					curByte = dis.readUnsignedByte();
+				grid[r][c] = ((curByte >> b) & 1) != 0;
+				b = (b + 1) % 8;
+			}
+		}
+	}
+
+}
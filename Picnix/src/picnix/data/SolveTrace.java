@@ -0,0 +1,253 @@
+package picnix.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import picnix.puzzle.Puzzle;
+
+/**
+ * An append-only record of every mark change made while solving
+ * a level, for replays and for finding where players get stuck.
+ *
+ * While recording, each change is packed into one long (the puzzle
+ * clock, then the row, column, mark and layer) in an array that is
+ * grown ahead of the marks (see reserve), so recording a mark is a
+ * few stores. The trace is written out on a background thread when
+ * the level is left.
+ *
+ * A trace file holds a version byte, the world id byte, the level id
+ * (short), the rows and cols bytes, the wall clock start time (long)
+ * and the change count (int), then each change as a varint of the
+ * milliseconds since the last change, the row and col bytes, and a
+ * byte holding the mark and layer (each plus one, as a nibble each).
+ */
+public class SolveTrace {
+
+	public static final int VERSION = 1;
+	// where traces are saved, next to the user data
+	private static final String TRACE_DIR = "traces";
+	// the least room for changes to start with
+	private static final int MIN_CAPACITY = 64;
+
+	private int worldId;
+	private int levelId;
+	private int rows;
+	private int columns;
+	private long startTime;
+
+	// packed changes: time << 24 | row << 16 | col << 8 | mark + 1 << 4 | layer + 1
+	private long[] changes;
+	private int count;
+	// whether the trace was handed off to be saved
+	private boolean closed;
+
+	/**
+	 * Starts recording a trace.
+	 * @param worldId The world of the level.
+	 * @param levelId The level being solved.
+	 * @param rows The number of rows in the level.
+	 * @param columns The number of columns in the level.
+	 */
+	public SolveTrace(int worldId, int levelId, int rows, int columns) {
+		this.worldId = worldId;
+		this.levelId = levelId;
+		this.rows = rows;
+		this.columns = columns;
+		startTime = System.currentTimeMillis();
+		// room for a whole board of changes, which is what's reserved
+		changes = new long[Math.max(MIN_CAPACITY, rows * columns)];
+	}
+
+	/**
+	 * Makes room for more changes ahead of time, so that recording
+	 * them doesn't have to. The room doubles when it runs short.
+	 * @param room The number of changes to make room for.
+	 */
+	public void reserve(int room) {
+		if (closed || count + room <= changes.length)
+			return;
+		long[] bigger = new long[Math.max(changes.length * 2, count + room)];
+		System.arraycopy(changes, 0, bigger, 0, count);
+		changes = bigger;
+	}
+
+	/**
+	 * Records one mark change.
+	 * @param time The puzzle clock, in milliseconds.
+	 * @param row The row of the cell.
+	 * @param col The column of the cell.
+	 * @param mark The cell's new mark.
+	 * @param layerId The layer of the cell, or -1 if not layered.
+	 */
+	public void record(long time, int row, int col, int mark, int layerId) {
+		if (closed)
+			return;
+		if (count == changes.length) // more marks than were reserved
+			reserve(1);
+		changes[count++] = time << 24 | row << 16 | col << 8 | (mark + 1) << 4 | (layerId + 1);
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return The puzzle clock at a change, in milliseconds.
+	 */
+	public long getTime(int index) {
+		return changes[index] >>> 24;
+	}
+
+	public int getRow(int index) {
+		return (int) (changes[index] >> 16) & 0xff;
+	}
+
+	public int getColumn(int index) {
+		return (int) (changes[index] >> 8) & 0xff;
+	}
+
+	public int getMark(int index) {
+		return ((int) (changes[index] >> 4) & 0xf) - 1;
+	}
+
+	public int getLayerId(int index) {
+		return ((int) changes[index] & 0xf) - 1;
+	}
+
+	public int getWorldId() {
+		return worldId;
+	}
+
+	public int getLevelId() {
+		return levelId;
+	}
+
+	/**
+	 * Replays a run of changes onto a level's puzzles.
+	 * To replay at some speed, apply the changes whose
+	 * time has come on each tick.
+	 * @param layers The puzzles of the level (one if not layered).
+	 * @param from The first change to apply.
+	 * @param to The change after the last one to apply.
+	 */
+	public void replay(Puzzle[] layers, int from, int to) {
+		for (int i = from; i < to; i++)
+			layers[Math.max(0, getLayerId(i))].markSpot(getRow(i), getColumn(i), getMark(i));
+	}
+
+	/**
+	 * Stops recording and saves the trace on a background
+	 * thread, to a new file in the traces folder.
+	 */
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		if (count == 0)
+			return;
+		Thread saver = new Thread(() -> {
+			File dir = new File(TRACE_DIR);
+			dir.mkdirs();
+			String name = "w" + worldId + "-l" + levelId + "-" + startTime + ".trace";
+			try {
+				write(new File(dir, name));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}, "trace saver");
+		saver.start();
+	}
+
+	/**
+	 * Writes the trace to a file.
+	 * @param file The file to write.
+	 */
+	public void write(File file) throws IOException {
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		dos.write(VERSION);
+		dos.write(worldId);
+		dos.writeShort(levelId);
+		dos.write(rows);
+		dos.write(columns);
+		dos.writeLong(startTime);
+		dos.writeInt(count);
+		long last = 0;
+		for (int i = 0; i < count; i++) {
+			long time = getTime(i);
+			writeVarLong(dos, time - last);
+			last = time;
+			dos.write(getRow(i));
+			dos.write(getColumn(i));
+			dos.write((int) changes[i] & 0xff);
+		}
+		dos.close();
+	}
+
+	/**
+	 * Reads a saved trace.
+	 * @param file The trace file.
+	 * @return The trace, or null if it couldn't be read.
+	 */
+	public static SolveTrace read(File file) {
+		try {
+			DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			int version = dis.read();
+			if (version != VERSION) {
+				dis.close();
+				throw new IOException("unsupported trace version " + version);
+			}
+			int worldId = dis.read();
+			int levelId = dis.readUnsignedShort();
+			int rows = dis.read();
+			int columns = dis.read();
+			SolveTrace trace = new SolveTrace(worldId, levelId, rows, columns);
+			trace.startTime = dis.readLong();
+			int count = dis.readInt();
+			trace.changes = new long[Math.max(1, count)];
+			long time = 0;
+			for (int i = 0; i < count; i++) {
+				time += readVarLong(dis);
+				int row = dis.read();
+				int col = dis.read();
+				int markLayer = dis.read();
+				trace.changes[i] = time << 24 | row << 16 | col << 8 | markLayer;
+			}
+			trace.count = count;
+			trace.closed = true;
+			dis.close();
+			return trace;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Writes an unsigned varint: seven bits per byte, low bits
+	 * first, with the top bit set on every byte but the last.
+	 */
+	private static void writeVarLong(DataOutputStream dos, long value) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			dos.write((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		dos.write((int) value);
+	}
+
+	private static long readVarLong(DataInputStream dis) throws IOException {
+		long value = 0;
+		for (int shift = 0; ; shift += 7) {
+			int b = dis.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+	}
+
+}
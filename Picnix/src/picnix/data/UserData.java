@@ -1,35 +1,79 @@
 package picnix.data;
 
-import java.io.DataInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32C;
 
 import picnix.World;
 
+/**
+ * Keeps the player's score for every level, in the save file.
+ * Each section of the file has a checksum, and the last good file
+ * is kept as a backup, which is loaded if the file turns out damaged.
+ * Changes are written by a {@link ScoreJournal} in the background,
+ * which also rewrites the save file now and then.
+ */
 public class UserData {
 
 	private static int INCOMPLETE = 0;
 	
+	// "PXSV"; an old save file starts with a score, which is never near this
+	private static final int MAGIC = 0x50585356;
+	private static final int VERSION = 1;
+	
 	private static int puzzleScores[][];
+	private static ScoreJournal journal;
+	
+	// running totals, kept up to date by setPuzzleScore
+	private static int worldScores[];
+	private static int worldCompleted[];
+	// scoreBefore[i] is the total score of the worlds before world i
+	private static long scoreBefore[];
 	
 	public static int getPuzzleScore(int worldId, int levelId) {
 		return puzzleScores[worldId][levelId];
 	}
 
+	/**
+	 * Sets a level's score. It's written to disk in the background.
+	 */
 	public static void setPuzzleScore(int worldId, int levelId, int score) {
+		int old = puzzleScores[worldId][levelId];
+		if (old == score)
+			return;
 		puzzleScores[worldId][levelId] = score;
+		worldScores[worldId] += score - old;
+		if ((old != INCOMPLETE) != (score != INCOMPLETE))
+			worldCompleted[worldId] += score != INCOMPLETE ? 1 : -1;
+		for (int i = worldId + 1; i < scoreBefore.length; i++)
+			scoreBefore[i] += score - old;
+		journal.record(worldId, levelId, score);
 	}
 	
 	public static int getWorldScore(int worldId) {
-		int count = 0;
-		for (int i = 0; i < puzzleScores[worldId].length; i++)
-			count += puzzleScores[worldId][i];
-		return count;
+		return worldScores[worldId];
+	}
+	
+	/**
+	 * @param worldId A world.
+	 * @return The total score of every world before it.
+	 */
+	public static long getScoreBefore(int worldId) {
+		return scoreBefore[worldId];
+	}
+	
+	/**
+	 * @return The total score of every world.
+	 */
+	public static long getTotalScore() {
+		return scoreBefore[puzzleScores.length];
 	}
 	
 	public static boolean isPuzzleCleared(int worldId, int levelId) {
@@ -37,79 +81,243 @@ public class UserData {
 	}
 	
 	public static int getPuzzlesCompleted(int worldId) {
-		int count = 0;
-		for (int i = 0; i < puzzleScores[worldId].length; i++)
-			if (isPuzzleCleared(worldId, i))
-				count++;
-		return count;
+		return worldCompleted[worldId];
 	}
 	
 	public static boolean isWorldCompleted(int worldId) {
 		return getPuzzlesCompleted(worldId) == puzzleScores[worldId].length;
 	}
 	
+	/**
+	 * @return True if scores can no longer be saved, because
+	 * writing them failed again and again.
+	 */
+	public static boolean hasSaveFailed() {
+		return journal.hasFailed();
+	}
+	
 	/**
 	 * @deprecated
 	 */
 	public static void randomizeScores() {
 		for (int i = 0; i < World.NUM_WORLDS; i++)
 			for (int j = 0; j < puzzleScores[i].length; j++)
-				puzzleScores[i][j] = Math.random() > 0.5 ? 0 : (int) (Math.random() * 2000);
+				setPuzzleScore(i, j, Math.random() > 0.5 ? 0 : (int) (Math.random() * 2000));
 	}
 	
+	/**
+	 * Loads every score, and starts the journal that saves changes.
+	 */
 	public static void load() {
-		puzzleScores = new int[World.NUM_WORLDS][];
+		puzzleScores = readScores();
+		computeTotals();
+		if (journal != null)
+			journal.close();
+		journal = new ScoreJournal(new File(getJournalPath()), puzzleScores);
+	}
+	
+	/**
+	 * Reads every score as saved: the save file (or its backup, if it's
+	 * damaged) and then the journal's changes since. Nothing is loaded
+	 * or started by this.
+	 * @return The score of each level of each world.
+	 */
+	public static int[][] readScores() {
+		int[][] scores = readSave(new File(getPath()));
+		if (scores == null) {
+			// missing or damaged, so try the copy kept by the last save
+			scores = readSave(new File(getBackupPath()));
+			if (scores != null && new File(getPath()).exists())
+				System.err.println(getPath() + " is damaged, loaded " + getBackupPath());
+		}
+		if (scores == null) {
+			// no save data was created yet (or none of it is usable)
+			scores = new int[World.NUM_WORLDS][];
+			for (int i = 0; i < World.NUM_WORLDS; i++)
+				scores[i] = new int[World.getWorld(i).getLevelCount()];
+		}
+		// then the changes made since the save file was last written
+		ScoreJournal.replay(new File(getJournalPath()), scores);
+		return scores;
+	}
+	
+	/**
+	 * Waits until every score change so far is on disk.
+	 */
+	public static void flush() {
 		try {
-			File saveFile = new File(getPath());
-			// if no save data was created yet
-			if (saveFile.createNewFile())
-				init(); // populate with default data (zeroes)
-			InputStream is = new FileInputStream(saveFile);
-			DataInputStream dis = new DataInputStream(is);
-			for (int i = 0; i < World.NUM_WORLDS; i++) {
-				World w = World.getWorld(i);
-				puzzleScores[i] = new int[w.getLevelCount()];
-				for (int j = 0; j < w.getLevelCount(); j++)
-					setPuzzleScore(i, j, dis.readInt());
-			}
-			dis.close();
-		} catch (IOException e) {
+			journal.flush();
+		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
 	}
 	
-	public static void save() {
-		try {
-			OutputStream is = new FileOutputStream(getPath());
-			DataOutputStream dis = new DataOutputStream(is);
-			for (int i = 0; i < World.NUM_WORLDS; i++) {
-				World w = World.getWorld(i);
-				for (int j = 0; j < w.getLevelCount(); j++)
-					dis.writeInt(getPuzzleScore(i, j));
+	/**
+	 * Works out the running totals from scratch, after loading.
+	 */
+	private static void computeTotals() {
+		int worlds = puzzleScores.length;
+		worldScores = new int[worlds];
+		worldCompleted = new int[worlds];
+		scoreBefore = new long[worlds + 1];
+		for (int i = 0; i < worlds; i++) {
+			for (int j = 0; j < puzzleScores[i].length; j++) {
+				worldScores[i] += puzzleScores[i][j];
+				if (isPuzzleCleared(i, j))
+					worldCompleted[i]++;
 			}
-			dis.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+			scoreBefore[i + 1] = scoreBefore[i] + worldScores[i];
 		}
 	}
 	
-	private static void init() {
+	/**
+	 * Reads a save file in one go, checking every section's checksum.
+	 * Nothing is kept from a file that fails, so scores are never
+	 * left half loaded.
+	 * @param file The save file.
+	 * @return The score of each level of each world, or null if the
+	 * file is missing or damaged.
+	 */
+	private static int[][] readSave(File file) {
+		if (!file.exists())
+			return null;
 		try {
-			OutputStream is = new FileOutputStream(getPath());
-			DataOutputStream dis = new DataOutputStream(is);
-			for (int i = 0; i < World.NUM_WORLDS; i++) {
-				World w = World.getWorld(i);
-				for (int j = 0; j < w.getLevelCount(); j++)
-					dis.writeInt(0);
+			ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+			if (data.remaining() >= 4 && data.getInt(0) == MAGIC)
+				return readSections(data);
+			return readOldSave(data);
+		} catch (IOException | BufferUnderflowException e) {
+			System.err.println(file + ": " + e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Reads a save file made of checksummed sections: a header
+	 * (the magic number, a version byte, and the world count), then
+	 * each world's level count and level scores. Each section is
+	 * followed by its CRC-32C.
+	 */
+	private static int[][] readSections(ByteBuffer data) throws IOException {
+		CRC32C crc = new CRC32C();
+		checkSection(data, crc, 4 + 1 + 4);
+		data.getInt(); // magic
+		int version = data.get();
+		if (version != VERSION)
+			throw new IOException("unsupported save version " + version);
+		int worlds = data.getInt();
+		data.getInt(); // checksum
+		int[][] scores = new int[World.NUM_WORLDS][];
+		for (int i = 0; i < World.NUM_WORLDS; i++)
+			scores[i] = new int[World.getWorld(i).getLevelCount()];
+		for (int i = 0; i < worlds; i++) {
+			int count = data.getInt(data.position());
+			if (count < 0)
+				throw new IOException("bad level count " + count);
+			checkSection(data, crc, 4 + 4L * count);
+			data.getInt(); // count
+			for (int j = 0; j < count; j++) {
+				int score = data.getInt();
+				// a world may have changed size since it was saved
+				if (i < scores.length && j < scores[i].length)
+					scores[i][j] = score;
 			}
-			dis.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+			data.getInt(); // checksum
+		}
+		if (data.hasRemaining())
+			throw new IOException("unexpected data after the last world");
+		return scores;
+	}
+	
+	/**
+	 * Checks the checksum of the section at a buffer's position.
+	 * @param length The section's length, not counting its checksum.
+	 */
+	private static void checkSection(ByteBuffer data, CRC32C crc, long length) throws IOException {
+		int start = data.position();
+		if (length + 4 > data.remaining())
+			throw new IOException("file ends partway through a section");
+		crc.reset();
+		crc.update(data.array(), start, (int) length);
+		if ((int) crc.getValue() != data.getInt(start + (int) length))
+			throw new IOException("checksum mismatch at " + start);
+	}
+	
+	/**
+	 * Reads an old save file: just every level's score, world after
+	 * world. It doesn't say how many levels each world had, so if levels
+	 * were added since, it's read as far as it goes, and the levels it
+	 * doesn't reach are left uncleared. Scores past the last level are
+	 * ignored.
+	 */
+	private static int[][] readOldSave(ByteBuffer data) throws IOException {
+		if (data.remaining() % 4 != 0)
+			throw new IOException("old save file is " + data.remaining() + " bytes, not a whole number of scores");
+		int[][] scores = new int[World.NUM_WORLDS][];
+		for (int i = 0; i < World.NUM_WORLDS; i++) {
+			scores[i] = new int[World.getWorld(i).getLevelCount()];
+			for (int j = 0; j < scores[i].length && data.hasRemaining(); j++)
+				scores[i][j] = data.getInt();
+		}
+		return scores;
+	}
+	
+	/**
+	 * Writes every score to the save file. The new file is written
+	 * beside the old one, synced, and then moved over it, and the old
+	 * one (if it's sound) is kept as the backup. Only the journal's
+	 * writer calls this, so it's never done on the game thread.
+	 * @param scores The score of each level of each world.
+	 */
+	static void writeSave(int[][] scores) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bytes);
+		CRC32C crc = new CRC32C();
+		ByteBuffer header = ByteBuffer.allocate(4 + 1 + 4);
+		header.putInt(MAGIC).put((byte) VERSION).putInt(scores.length);
+		writeSection(dos, crc, header.array());
+		for (int i = 0; i < scores.length; i++) {
+			ByteBuffer section = ByteBuffer.allocate(4 + 4 * scores[i].length);
+			section.putInt(scores[i].length);
+			section.asIntBuffer().put(scores[i]);
+			writeSection(dos, crc, section.array());
 		}
+		File file = new File(getPath());
+		File temp = new File(getPath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(temp);
+		bytes.writeTo(fos);
+		fos.getFD().sync();
+		fos.close();
+		// don't let a damaged file replace a good backup
+		if (readSave(file) != null)
+			Files.move(file.toPath(), new File(getBackupPath()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		// and keep a file that couldn't be read, rather than losing it
+		else if (file.exists() && !new File(getUnreadablePath()).exists())
+			Files.copy(file.toPath(), new File(getUnreadablePath()).toPath());
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	private static void writeSection(DataOutputStream dos, CRC32C crc, byte[] section) throws IOException {
+		crc.reset();
+		crc.update(section);
+		dos.write(section);
+		dos.writeInt((int) crc.getValue());
 	}
 	
 	private static String getPath() {
 		return "user.data";
 	}
 	
+	private static String getBackupPath() {
+		return getPath() + ".bak";
+	}
+	
+	private static String getUnreadablePath() {
+		return getPath() + ".unreadable";
+	}
+	
+	private static String getJournalPath() {
+		return "user.journal";
+	}
+	
 }
@@ -0,0 +1,255 @@
+package picnix.puzzle;
+
+/**
+ * A grid of bits stored twice: once as a long[] per row,
+ * and once as a long[] per column. Keeping both orientations
+ * means any row or column query (runs, counts, comparisons)
+ * is done a whole 64-bit word at a time.
+ */
+public class BitGrid {
+
+	private static final int WORD_BITS = 64;
+
+	private int rows;
+	private int columns;
+
+	// bit c of row r lives in rowBits[r][c / 64], and
+	// bit r of column c lives in colBits[c][r / 64]
+	private long[][] rowBits;
+	private long[][] colBits;
+
+	/**
+	 * Creates a grid with every bit cleared.
+	 * @param rows The number of rows.
+	 * @param columns The number of columns.
+	 */
+	public BitGrid(int rows, int columns) {
+		this.rows = rows;
+		this.columns = columns;
+		rowBits = new long[rows][words(columns)];
+		colBits = new long[columns][words(rows)];
+	}
+
+	/**
+	 * Creates a grid from a 2D boolean array.
+	 * @param grid The grid; true is a set bit.
+	 */
+	public BitGrid(boolean[][] grid) {
+		this(grid.length, grid[0].length);
+		for (int r = 0; r < rows; r++)
+			for (int c = 0; c < columns; c++)
+				if (grid[r][c])
+					set(r, c, true);
+	}
+
+	/**
+	 * @param bits A number of bits.
+	 * @return How many longs it takes to hold that many bits.
+	 */
+	public static int words(int bits) {
+		return (bits + WORD_BITS - 1) / WORD_BITS;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public boolean get(int row, int col) {
+		return (rowBits[row][col >>> 6] & (1L << col)) != 0;
+	}
+
+	public void set(int row, int col, boolean on) {
+		if (on) {
+			rowBits[row][col >>> 6] |= 1L << col;
+			colBits[col][row >>> 6] |= 1L << row;
+		}
+		else {
+			rowBits[row][col >>> 6] &= ~(1L << col);
+			colBits[col][row >>> 6] &= ~(1L << row);
+		}
+	}
+
+	/**
+	 * Sets a whole row from packed words, keeping the
+	 * column words in sync. Bits past the row's end are ignored.
+	 * @param row The row to set.
+	 * @param words The row's bits, 64 per word.
+	 */
+	public void setRow(int row, long[] words) {
+		long[] dest = rowBits[row];
+		for (int w = 0; w < dest.length; w++) {
+			long bits = words[w];
+			// mask off bits past the end of the row
+			if (w == dest.length - 1 && columns % WORD_BITS != 0)
+				bits &= (1L << columns) - 1;
+			dest[w] = bits;
+			// copy each set bit over to its column
+			while (bits != 0) {
+				int col = w * WORD_BITS + Long.numberOfTrailingZeros(bits);
+				colBits[col][row >>> 6] |= 1L << row;
+				bits &= bits - 1;
+			}
+		}
+	}
+
+	/**
+	 * Returns the live words of a row. Don't modify them.
+	 * @param row The row.
+	 * @return The row's bits, 64 per word.
+	 */
+	public long[] getRow(int row) {
+		return rowBits[row];
+	}
+
+	/**
+	 * Returns the live words of a column. Don't modify them.
+	 * @param col The column.
+	 * @return The column's bits, 64 per word.
+	 */
+	public long[] getColumn(int col) {
+		return colBits[col];
+	}
+
+	/**
+	 * Returns the live words of a row or column.
+	 * @param rowMode If true, a row. Otherwise a column.
+	 * @param pos The row or column number.
+	 * @return The line's bits, 64 per word.
+	 */
+	public long[] getLine(boolean rowMode, int pos) {
+		return rowMode ? rowBits[pos] : colBits[pos];
+	}
+
+	public int countRow(int row) {
+		return count(rowBits[row]);
+	}
+
+	public int countColumn(int col) {
+		return count(colBits[col]);
+	}
+
+	/**
+	 * @return The number of set bits in the whole grid.
+	 */
+	public int count() {
+		int count = 0;
+		for (int r = 0; r < rows; r++)
+			count += count(rowBits[r]);
+		return count;
+	}
+
+	public boolean isEmpty() {
+		for (int r = 0; r < rows; r++)
+			for (long word : rowBits[r])
+				if (word != 0)
+					return false;
+		return true;
+	}
+
+	public void clear() {
+		for (int r = 0; r < rows; r++)
+			for (int w = 0; w < rowBits[r].length; w++)
+				rowBits[r][w] = 0;
+		for (int c = 0; c < columns; c++)
+			for (int w = 0; w < colBits[c].length; w++)
+				colBits[c][w] = 0;
+	}
+
+	/* ~~~~~~~~~~~~~~~~~~~~
+	 * 	LINE HELPERS
+	 * ~~~~~~~~~~~~~~~~~~~~
+	 */
+
+	/**
+	 * @return The number of set bits in a line.
+	 */
+	public static int count(long[] line) {
+		int count = 0;
+		for (long word : line)
+			count += Long.bitCount(word);
+		return count;
+	}
+
+	/**
+	 * Counts the set bits of a line within [from, to).
+	 */
+	public static int count(long[] line, int from, int to) {
+		if (from >= to)
+			return 0;
+		int fw = from >>> 6;
+		int tw = (to - 1) >>> 6;
+		long first = -1L << from;
+		long last = -1L >>> (WORD_BITS - 1 - ((to - 1) & 63));
+		if (fw == tw)
+			return Long.bitCount(line[fw] & first & last);
+		int count = Long.bitCount(line[fw] & first) + Long.bitCount(line[tw] & last);
+		for (int w = fw + 1; w < tw; w++)
+			count += Long.bitCount(line[w]);
+		return count;
+	}
+
+	/**
+	 * Sets the bits of a line within [from, to).
+	 */
+	public static void setRange(long[] line, int from, int to) {
+		if (from >= to)
+			return;
+		int fw = from >>> 6;
+		int tw = (to - 1) >>> 6;
+		long first = -1L << from;
+		long last = -1L >>> (WORD_BITS - 1 - ((to - 1) & 63));
+		if (fw == tw) {
+			line[fw] |= first & last;
+			return;
+		}
+		line[fw] |= first;
+		for (int w = fw + 1; w < tw; w++)
+			line[w] = -1L;
+		line[tw] |= last;
+	}
+
+	/**
+	 * Finds the next set bit of a line at or after a position.
+	 * @param line The line's words.
+	 * @param from The position to start from.
+	 * @param length The length of the line.
+	 * @return The position of the set bit, or length if none.
+	 */
+	public static int nextSet(long[] line, int from, int length) {
+		if (from >= length)
+			return length;
+		int w = from >>> 6;
+		long word = line[w] & (-1L << from);
+		while (word == 0) {
+			if (++w == line.length)
+				return length;
+			word = line[w];
+		}
+		return Math.min(length, w * WORD_BITS + Long.numberOfTrailingZeros(word));
+	}
+
+	/**
+	 * Finds the next cleared bit of a line at or after a position.
+	 * @param line The line's words.
+	 * @param from The position to start from.
+	 * @param length The length of the line.
+	 * @return The position of the cleared bit, or length if none.
+	 */
+	public static int nextClear(long[] line, int from, int length) {
+		if (from >= length)
+			return length;
+		int w = from >>> 6;
+		long word = ~line[w] & (-1L << from);
+		while (word == 0) {
+			if (++w == line.length)
+				return length;
+			word = ~line[w];
+		}
+		return Math.min(length, w * WORD_BITS + Long.numberOfTrailingZeros(word));
+	}
+
+}
@@ -8,6 +8,7 @@ import java.awt.image.BufferedImage;
 
 import engine.Engine;
 import engine.Input;
+import picnix.solver.Hint;
 import resource.bank.AudioBank;
 import resource.bank.ImageBank;
 import resource.bank.Palette;
@@ -28,8 +29,10 @@ public class Blanket extends Element {
 	private boolean drawing;
 	// the draw mode (mark to write)
 	private int drawMode;
-	// the stroke data for the current draw
+	// the stroke data for the current draw (null if not drawing)
 	private Stroke drawStroke;
+	// reused for each draw, since the undo log copies it
+	private Stroke strokeData;
 	// used for mouse ray tracing
 	private int lastDrawX, lastDrawY;
 	// used for inferring which blob to size up when drawing
@@ -46,6 +49,11 @@ public class Blanket extends Element {
 	private final int FADE_TIME = 550;
 	private Timer fadeTimer;
 	
+	// the widest (and tallest) food, in cells
+	private static final int MAX_FOOD_SIZE = 3;
+	// clue numbers past the end of a numbers sheet, made from digits
+	private static final BufferedImage[] composedNumbers = new BufferedImage[256];
+	
 	// streak constants
 	public static final double[] MULTIPLIERS = {1, 1.2, 1.5, 2, 3, 5};
 	public static final int STREAK_GAP = 4500;
@@ -67,6 +75,7 @@ public class Blanket extends Element {
 		blobSizeAnim[1] = new Animation(100, Animation.EASE_OUT, Animation.NO_LOOP);
 		hintFade = new Animation(0, 1, 350, Animation.CUBIC, Animation.NO_LOOP, true);
 		fadeTimer = new Timer(false);
+		strokeData = new Stroke();
 		scoreChart = new boolean[puzState.getRows()][puzState.getColumns()];
 		streakTimer = new Timer(false);
 		foodMap = new FoodContainer[puzState.getActivePuzzle().getRows()][puzState.getActivePuzzle().getColumns()];
@@ -315,10 +324,18 @@ public class Blanket extends Element {
 		blobSizeAnim[1].pause();
 	}
 	
+	/**
+	 * @return Which cells have already scored a plate bonus.
+	 */
+	public boolean[][] getScoreChart() {
+		return scoreChart;
+	}
+	
 	private void startDraw(int mode) {
 		if (drawing)
 			return;
-		drawStroke = Stroke.newStroke(puzState.getActiveLayerId());
+		drawStroke = strokeData;
+		drawStroke.reset(puzState.getActiveLayerId());
 		drawing = true;
 		drawMode = mode;
 		fadeTimer.reset(true);
@@ -375,6 +392,8 @@ public class Blanket extends Element {
 					puzState.fadeSidebars(true);
 					fadeTimer.reset(false);
 				}
+				// batch this tick's marks, so each touched line is updated once
+				puzzle.beginBatch();
 				// CHECK IF NEED MOUSE RAYTRACE
 				double dist = Math.sqrt(Math.pow(drawY - lastDrawY, 2) + Math.pow(drawX - lastDrawX, 2));
 				int cellSize = puzState.getPuzzleCellSize();
@@ -393,6 +412,7 @@ public class Blanket extends Element {
 				}
 				// MAKE FINAL MARK AT THE ACTUAL MOUSE POSITION
 				tryDraw(puzzle, mrow, mcol);
+				puzzle.commitBatch();
 				// UPDATE LAST DRAW X/Y
 				lastDrawX = drawX;
 				lastDrawY = drawY;
@@ -408,8 +428,12 @@ public class Blanket extends Element {
 		if (oldMark != drawMode && !(drawMode == Puzzle.FILLED && oldMark == Puzzle.FLAGGED)) {
 			boolean mistake = puzzle.markSpot(row, col, drawMode);   
 			drawStroke.addChange(row, col, oldMark, mistake);
-			if (mistake)
+			puzState.recordMark(row, col, drawMode, puzState.getActiveLayerId());
+			if (mistake) {
+				// the stroke is handled right away, so finish the batch first
+				puzzle.commitBatch();
 				stopDraw();
+			}
 			// if not mistake, is plate draw, and not scored yet
 			else if (drawMode == Puzzle.FILLED && !scoreChart[row][col]) {
 				if (streakTimer.elapsed() < STREAK_GAP)
@@ -425,6 +449,20 @@ public class Blanket extends Element {
 		}
 	}
 
+	/**
+	 * @return The row of the hovered cell, or -1 if not hovered.
+	 */
+	public int getHoveredRow() {
+		return beingHovered() ? currCell[ROW] : -1;
+	}
+	
+	/**
+	 * @return The column of the hovered cell, or -1 if not hovered.
+	 */
+	public int getHoveredColumn() {
+		return beingHovered() ? currCell[COL] : -1;
+	}
+
 	public int getStreak() {
 		return streak;
 	}
@@ -466,6 +504,7 @@ public class Blanket extends Element {
 		BufferedImage[] scrVert = getHintScrollVerticalSheet(cellSize);
 		BufferedImage[] nums = getHintNumbersSheet(cellSize);
 		int hgridW = getHintScrollWidth(cellSize);
+		// offsets of the cross-out line drawn over crossed clues
 		int rowXOff = (hgridW - nums[0].getWidth()) / 2;
 		int rowYOff = (cellSize - nums[0].getHeight()) / 2;
 		int colXOff = (cellSize - nums[0].getWidth()) / 2;
@@ -484,10 +523,19 @@ public class Blanket extends Element {
 		boolean hov = puzzle.validSpot(highRow, highCol) && !puzState.isPictureOver();
 		int mode = hov ? getDrawMode(Input.LEFT_CLICK, puzzle.getMark(highRow, highCol)) : 0;
 
+		// the part of the blanket (and its clues) on screen,
+		// so big boards only draw what the camera can see
+		int viewLeft = -xp, viewTop = -yp;
+		int viewRight = Engine.SCREEN_WIDTH - xp, viewBottom = Engine.SCREEN_HEIGHT - yp;
+		int firstRow = Math.max(0, getCellAtPoint(viewTop));
+		int lastRow = Math.min(puzzle.getRows() - 1, getCellAtPoint(viewBottom - 1));
+		int firstCol = Math.max(0, getCellAtPoint(viewLeft));
+		int lastCol = Math.min(puzzle.getColumns() - 1, getCellAtPoint(viewRight - 1));
+
 		Graphics2D gg = (Graphics2D) g;
 		Composite oldComp = gg.getComposite();
-		for (int r = 0; r < puzzle.getRows(); r++) {
-			for (int c = 0; c < puzzle.getColumns(); c++) {
+		for (int r = firstRow; r <= lastRow; r++) {
+			for (int c = firstCol; c <= lastCol; c++) {
 				BufferedImage cell = cells[r % 2 + c % 2];
 				g.drawImage(cell, c * cellSize, r * cellSize, cellSize, cellSize, null);
 				int mark = puzzle.getMark(r, c);
@@ -514,6 +562,19 @@ public class Blanket extends Element {
 					gg.setComposite(oldComp);
 			}
 		}
+		// the hint: tint the forcing line and outline the forced cell
+		Hint hint = puzState.getShownHint();
+		if (hint != null) {
+			gg.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.25f));
+			g.setColor(Palette.PALE_BLUE);
+			if (hint.isForcedByRow())
+				g.fillRect(0, hint.getRow() * cellSize, puzzle.getColumns() * cellSize, cellSize);
+			else
+				g.fillRect(hint.getColumn() * cellSize, 0, cellSize, puzzle.getRows() * cellSize);
+			gg.setComposite(oldComp);
+			g.setColor(hint.getMark() == Puzzle.FILLED ? Palette.RED : Palette.BLACK);
+			g.drawRect(hint.getColumn() * cellSize, hint.getRow() * cellSize, cellSize - 1, cellSize - 1);
+		}
 		// if there is a current stroke w/ at least 2 changes
 		if (hov && drawStroke != null && drawStroke.size() > 1) {
 			boolean horizontal = lastCell[ROW] == currCell[ROW];
@@ -526,8 +587,9 @@ public class Blanket extends Element {
 					int axisPara = horizontal ? ROW : COL;
 					int axisPerp = horizontal ? COL : ROW;
 					boolean hintCover = currCell[axisPara] == 0;
-					int numPara = horizontal ? nums[0].getWidth() : nums[0].getHeight();
-					int numPerp = horizontal ? nums[0].getHeight() : nums[0].getWidth();
+					BufferedImage sizeNum = getHintNumber(nums, size);
+					int numPara = horizontal ? sizeNum.getWidth() : sizeNum.getHeight();
+					int numPerp = horizontal ? sizeNum.getHeight() : sizeNum.getWidth();
 					int spa = start * cellSize + 1;
 					int npa = currCell[axisPerp] * cellSize + (cellSize - numPara) / 2;
 					int spe = !hintCover ? currCell[axisPara] * cellSize - 1 : (currCell[axisPara] + 1) * cellSize + 1;
@@ -554,14 +616,14 @@ public class Blanket extends Element {
 						g.drawLine(spa, epe, npa - 3, epe);
 						g.drawLine(nepa + 2, epe, epa, epe);
 						g.drawLine(epa, epe, epa, spe);
-						g.drawImage(nums[size - 1], npa, npe, null);
+						g.drawImage(sizeNum, npa, npe, null);
 					} // swap arguments for vertical
 					else {
 						g.drawLine(spe, spa, epe, spa);
 						g.drawLine(epe, spa, epe, npa - 3);
 						g.drawLine(epe, nepa + 2, epe, epa);
 						g.drawLine(epe, epa, spe, epa);
-						g.drawImage(nums[size - 1], npe, npa, null);
+						g.drawImage(sizeNum, npe, npa, null);
 					}
 				}
 			}
@@ -572,17 +634,21 @@ public class Blanket extends Element {
 			gg.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, (float) hintFade.getValue()));
 			// if board is done, roll up hints - else 0, no roll up
 			double rollUp = Animation.bezier(1 - puzState.getSwitchHideProgress(), Animation.EASE_IN);
-			for (int r = 0; r < puzzle.getRows(); r++) {
+			// row clues, if the scrolls left of the blanket are on screen
+			for (int r = firstRow; viewLeft < 0 && r <= lastRow; r++) {
 				int[] hints = puzzle.getClueRow(r);
 				int hh = r == highRow && hov ? 2 : 0;
 				// if the puzzle was solved, the hints roll up, so we need to clip the hint width/heights
 				int scrollW = hgridW * (hints.length);
 				int minX = (int) -(scrollW * rollUp);
-				g.setClip(minX, 0, Engine.SCREEN_WIDTH, Engine.SCREEN_HEIGHT);
-				for (int i = 0; i < hints.length; i++) {
+				g.setClip(minX, viewTop, viewRight - minX, viewBottom - viewTop);
+				// only the scroll pieces from the view's right edge to its left edge
+				int firstHint = viewRight < 0 ? -viewRight / hgridW : 0;
+				int lastHint = Math.min(hints.length - 1, (-viewLeft - 1) / hgridW);
+				for (int i = firstHint; i <= lastHint; i++) {
 					int hintnum = hints[hints.length - 1 - i];
 					g.drawImage(scrHoriz[1 + hh], -hgridW * (i+1), r * cellSize, null);
-					g.drawImage(nums[Math.abs(hintnum)-1], -hgridW * (i+1) + rowXOff, r * cellSize + rowYOff, null);
+					drawHintNumber(g, nums, Math.abs(hintnum), -hgridW * (i+1), r * cellSize, hgridW, cellSize);
 					if (hintnum < 0) {
 						g.setColor(Palette.RED);
 						g.drawLine(-hgridW * (i+1) + rowXOff, r * cellSize + rowYOff,
@@ -593,17 +659,21 @@ public class Blanket extends Element {
 				g.setClip(null);
 				g.drawImage(scrHoriz[0 + hh], minX - hgridW, r * cellSize, null);
 			}
-			for (int c = 0; c < puzzle.getColumns(); c++) {
+			// column clues, if the scrolls above the blanket are on screen
+			for (int c = firstCol; viewTop < 0 && c <= lastCol; c++) {
 				int[] hints = puzzle.getClueColumn(c);
 				int hh = c == highCol && hov ? 2 : 0;
 				// if the puzzle was solved, the hints roll up, so we need to clip the hint width/heights
 				int scrollH = hgridW * (hints.length);
 				int minY = (int) -(scrollH * rollUp);
-				g.setClip(0, minY, Engine.SCREEN_WIDTH, Engine.SCREEN_HEIGHT);
-				for (int i = 0; i < hints.length; i++) {
+				g.setClip(viewLeft, minY, viewRight - viewLeft, viewBottom - minY);
+				// only the scroll pieces from the view's bottom edge to its top edge
+				int firstHint = viewBottom < 0 ? -viewBottom / hgridW : 0;
+				int lastHint = Math.min(hints.length - 1, (-viewTop - 1) / hgridW);
+				for (int i = firstHint; i <= lastHint; i++) {
 					int hintnum = hints[hints.length - 1 - i];
 					g.drawImage(scrVert[1 + hh], c * cellSize, -hgridW * (i+1), null);
-					g.drawImage(nums[Math.abs(hintnum)-1], c * cellSize + colXOff, -hgridW * (i+1) + colYOff, null);
+					drawHintNumber(g, nums, Math.abs(hintnum), c * cellSize, -hgridW * (i+1), cellSize, hgridW);
 					if (hintnum < 0) {
 						g.setColor(Palette.RED);
 						g.drawLine(c * cellSize + colXOff, -hgridW * (i+1) + colYOff,
@@ -618,8 +688,10 @@ public class Blanket extends Element {
 		// if state has passed puzzle completion, draw food
 		else {
 			BufferedImage[] foods = getFoodSheet(cellSize);
-			for (int r = 0; r < foodMap.length; r++) {
-				for (int c = 0; c < foodMap.length; c++) {
+			// foods are drawn from their top left cell, so start
+			// far enough up and left to catch ones hanging into view
+			for (int r = Math.max(0, firstRow - MAX_FOOD_SIZE + 1); r <= lastRow; r++) {
+				for (int c = Math.max(0, firstCol - MAX_FOOD_SIZE + 1); c <= lastCol; c++) {
 					FoodContainer fc = foodSparseMap[r][c];
 					if (fc != null)
 						g.drawImage(foods[fc.foodId], c * cellSize, r * cellSize, null);
@@ -657,6 +729,30 @@ public class Blanket extends Element {
 		g.translate(-xp, -yp);
 	}
 
+	/**
+	 * Checks if the blanket, or any of its clues, is on screen.
+	 */
+	@Override
+	public boolean onScreen() {
+		int dx = getDisplayX() - puzState.getPuzzleLeftPadding();
+		int dy = getDisplayY() - puzState.getPuzzleTopPadding();
+		return (dx + getWidth() + puzState.getPuzzleLeftPadding() >= 0
+				&& dy + getHeight() + puzState.getPuzzleTopPadding() >= 0
+				&& dx < Engine.SCREEN_WIDTH
+				&& dy < Engine.SCREEN_HEIGHT);
+	}
+
+	/**
+	 * Draws a clue number centered in a scroll piece,
+	 * squeezing it sideways if it is too wide to fit.
+	 */
+	private static void drawHintNumber(Graphics g, BufferedImage[] nums, int n, int x, int y, int w, int h) {
+		BufferedImage num = getHintNumber(nums, n);
+		int nw = Math.min(w, num.getWidth());
+		int nh = num.getHeight();
+		g.drawImage(num, x + (w - nw) / 2, y + (h - nh) / 2, nw, nh, null);
+	}
+
 	private void setBlobSizeAnim(int x, int y) {
 		Animation b0 = blobSizeAnim[0];
 		Animation b1 = blobSizeAnim[1];
@@ -762,6 +858,31 @@ public class Blanket extends Element {
 		return null;
 	}
 	
+	/**
+	 * Gets the image of a clue number. The numbers sheets only go
+	 * up to 20 (or less), so bigger numbers are put together from
+	 * small digits, and kept for next time.
+	 * @param nums The numbers sheet, from {@link #getHintNumbersSheet(int)}.
+	 * @param n The number, from 1 to 255.
+	 * @return The number's image.
+	 */
+	public static BufferedImage getHintNumber(BufferedImage[] nums, int n) {
+		if (n <= nums.length)
+			return nums[n - 1];
+		if (composedNumbers[n] == null) {
+			String digits = Integer.toString(n);
+			BufferedImage[] font = ImageBank.smallblacknums;
+			int dw = font[0].getWidth();
+			BufferedImage num = new BufferedImage(digits.length() * (dw + 1) - 1, font[0].getHeight(), BufferedImage.TYPE_INT_ARGB);
+			Graphics g = num.getGraphics();
+			for (int i = 0; i < digits.length(); i++)
+				g.drawImage(font[digits.charAt(i) - '0'], i * (dw + 1), 0, null);
+			g.dispose();
+			composedNumbers[n] = num;
+		}
+		return composedNumbers[n];
+	}
+	
 	public static BufferedImage[] getFoodSheet(int cellSize) {
 		switch (cellSize) {
 		case PuzzleState.CELL_SIZE_5x5:
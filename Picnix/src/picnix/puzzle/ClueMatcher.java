@@ -0,0 +1,330 @@
+package picnix.puzzle;
+
+/**
+ * Decides which clues of a line can be auto-crossed, given the
+ * player's filled and flagged marks along that line.
+ *
+ * The line is split into blobs (runs of unflagged cells). A blob
+ * whose cells are all filled is punctuated; the rest are free
+ * space. A clue is crossed when exactly one punctuated blob of its
+ * size can be matched to it while every other clue still fits.
+ *
+ * Matching the clues [0, k) to the blobs [0, m) is a chain of
+ * anchors - pairs (clue i, blob j) of equal size, increasing in
+ * both i and j - where the clues and blobs between two anchors
+ * hold no other equal-size pair, and the clues there fit into
+ * the free space there. Reachability over these chains is found
+ * with a backward and a forward pass over (clue, blob) pairs.
+ *
+ * Crossing a clue changes how it packs into free space, so the
+ * forward pass is taken a clue at a time, alongside the matching:
+ * each chain is kept going as a scan, and taken one clue further
+ * only once that clue is settled. Of the scans out of the same blob
+ * only the latest is kept (it has packed the fewest clues, so it can
+ * reach whatever the others can), which makes each clue O(blobs).
+ * Crossing a clue then costs nothing more; uncrossing one (at most
+ * once per blob) takes the pass back to just past that clue.
+ * Nothing is allocated once the scratch buffers are big enough.
+ */
+class ClueMatcher {
+
+	// keeps track of which clue a blob has been matched to.
+	// if an already matched blob tries to match another clue,
+	// then unmatch the first clue and prevent further matches
+	private static final int NEVER_MATCHED = -1;
+	private static final int MATCH_BANNED = -2;
+
+	/* blob sizes - negative blob indicates "free space",
+	* i.e., a blob that has at least one open cell and therefore
+	* is not a complete/punctuated blob. we only try to cross
+	* clues for punctuated blobs, and use the free space to
+	* test how many p-blobs fit with a matching clue number
+	*/
+	private int[] blobs;
+	private int numBlobs;
+	private int[] blobClueMatch;
+	// the (clue, blob) tables are indexed by i * (numBlobs + 1) + j.
+	// reach: clues [0, i) and blobs [0, j) can be matched, ending
+	// at an anchor (i - 1, j - 1) or at the very start
+	private boolean[] reach;
+	// fitsLeft: (i, j) is an anchor that can end a match of
+	// clues [0, i] to blobs [0, j]
+	private boolean[] fitsLeft;
+	// fitsRight: clues [i, k) and blobs [j, m) can be matched
+	private boolean[] fitsRight;
+
+	// the forward scans still going after clue i, indexed like the
+	// tables by (i, b) for the scan out of blob b: the first anchor
+	// of a clue skipped so far, and the blob the skipped clues are
+	// packed up to, with the space left in it
+	private boolean[] scanLive;
+	private int[] scanAnchor;
+	private int[] scanBlob;
+	private int[] scanBuf;
+	// the number of clues the forward tables are done for
+	private int forwardRows;
+	// per blob j: the first punctuated blob at or after j, and
+	// (for the clue being skipped) the first blob of its size
+	private int[] nextPunctuated;
+	private int[] nextEqual;
+	// where the steps of a clue start (+1) and end (-1)
+	private int[] stepEdges;
+
+	/**
+	 * Creates a matcher with scratch space for lines
+	 * of up to the given length (it grows if needed).
+	 * @param maxLength The longest line expected.
+	 */
+	ClueMatcher(int maxLength) {
+		ensureCapacity(maxLength);
+	}
+
+	private void ensureCapacity(int length) {
+		// a line of n cells has at most (n + 1) / 2 blobs and clues
+		int most = (length + 1) / 2;
+		if (blobs == null || blobs.length < most) {
+			blobs = new int[most];
+			blobClueMatch = new int[most];
+			nextPunctuated = new int[most + 1];
+			nextEqual = new int[most + 1];
+			stepEdges = new int[most + 2];
+		}
+		int tableSize = (most + 1) * (most + 1);
+		if (reach == null || reach.length < tableSize) {
+			reach = new boolean[tableSize];
+			fitsLeft = new boolean[tableSize];
+			fitsRight = new boolean[tableSize];
+			scanLive = new boolean[tableSize];
+			scanAnchor = new int[tableSize];
+			scanBlob = new int[tableSize];
+			scanBuf = new int[tableSize];
+		}
+	}
+
+	/**
+	 * Crosses out (negates) the clues of a line that are matched
+	 * to exactly one punctuated blob, and uncrosses the rest.
+	 * @param clues The line's clue list, crossed in place.
+	 * @param fills The line's filled marks.
+	 * @param flags The line's flagged marks.
+	 * @param length The length of the line.
+	 */
+	void cross(int[] clues, long[] fills, long[] flags, int length) {
+		ensureCapacity(length);
+		// go ahead and reset all clues to non-cleared
+		int k = clues.length;
+		for (int i = 0; i < k; i++)
+			clues[i] = Math.abs(clues[i]);
+		// find the blobs (runs of unflagged cells)
+		int m = 0;
+		int start = BitGrid.nextClear(flags, 0, length);
+		while (start < length) {
+			int end = BitGrid.nextSet(flags, start, length);
+			int blobSize = end - start;
+			// punctuated if every cell of the blob is filled
+			boolean punctuated = BitGrid.count(fills, start, end) == blobSize;
+			blobs[m++] = punctuated ? blobSize : -blobSize;
+			start = BitGrid.nextClear(flags, end, length);
+		}
+		// clear the last line's forward tables before they're resized
+		rewindForward(0);
+		numBlobs = m;
+		int w = m + 1;
+		nextPunctuated[m] = m;
+		for (int j = m - 1; j >= 0; j--)
+			nextPunctuated[j] = blobs[j] > 0 ? j : nextPunctuated[j + 1];
+		// backward: chains to the end of the line, only needed
+		// from the start and from just past each anchor
+		for (int a = k; a >= 0; a--)
+			for (int b = m; b >= 0; b--)
+				if (a == 0 && b == 0 || a > 0 && b > 0 && clues[a - 1] == blobs[b - 1])
+					fitsRight[a * w + b] = scan(clues, k, a, b);
+		for (int j = 0; j < m; j++)
+			blobClueMatch[j] = NEVER_MATCHED;
+		// match clues to blobs
+		for (int i = 0; i < k; i++) {
+			int matchedBlob = NEVER_MATCHED;
+			for (int j = 0; j < m; j++) {
+				if (clues[i] != blobs[j])
+					continue;
+				forwardTo(clues, i);
+				// the blob matches this clue and fits in this spot
+				if (fitsLeft[i * w + j] && fitsRight[(i + 1) * w + j + 1]) {
+					if (blobClueMatch[j] != NEVER_MATCHED) { // this blob has matched more than one clue
+						if (blobClueMatch[j] != MATCH_BANNED) { // need to undo & ban match
+							int oldIndex = blobClueMatch[j]; // the previous matched clue
+							clues[oldIndex] = Math.abs(clues[oldIndex]); // uncross the clue (ambiguous!)
+							blobClueMatch[j] = MATCH_BANNED; // ban this blob from matches
+							// the scans packed that clue crossed, so go back
+							rewindForward(oldIndex + 1);
+						}
+						matchedBlob = MATCH_BANNED; // this clue can't be crossed - ambiguous
+					}
+					else { // blob's first match
+						blobClueMatch[j] = i;
+						matchedBlob = matchedBlob == NEVER_MATCHED ? j : MATCH_BANNED;
+					}
+				}
+			}
+			if (matchedBlob > NEVER_MATCHED) { // if exactly one match found:
+				clues[i] = -clues[i]; // cross out the clue
+			}
+		}
+	}
+
+	/**
+	 * Takes the forward tables back to just before clue i, whose
+	 * steps (and everything after) are found again when next needed.
+	 * Clue i - 1 may have changed, which only matters from here on.
+	 * @param i The clue.
+	 */
+	private void rewindForward(int i) {
+		int w = numBlobs + 1;
+		if (i == 0)
+			reach[0] = true;
+		// fitsLeft for clues up to forwardRows, reach one further
+		for (int s = i * w; s < forwardRows * w; s++) {
+			fitsLeft[s] = false;
+			reach[s + w] = false;
+		}
+		forwardRows = Math.min(forwardRows, i);
+	}
+
+	/**
+	 * Brings the forward tables up to clue i: which anchors of clue i
+	 * can end a match, and so which points of clue i + 1 are reached.
+	 * @param clues The line's clues, as currently crossed.
+	 * @param i The clue.
+	 */
+	private void forwardTo(int[] clues, int i) {
+		while (forwardRows <= i)
+			forwardStep(clues, forwardRows++);
+	}
+
+	/**
+	 * Takes every scan one clue further, to clue i: clue i - 1 (which
+	 * is settled by now) is skipped over, then the anchors clue i can
+	 * step to are marked. Then scans start out of the points of clue i.
+	 * See {@link #scan} for the steps, which are the same.
+	 */
+	private void forwardStep(int[] clues, int i) {
+		int m = numBlobs;
+		int w = m + 1;
+		int row = i * w;
+		for (int j = 0; j <= w; j++)
+			stepEdges[j] = 0;
+		for (int b = 0; b <= m; b++)
+			scanLive[row + b] = false;
+		if (i > 0) {
+			int clue = clues[i - 1];
+			nextEqual[m] = m;
+			for (int j = m - 1; j >= 0; j--)
+				nextEqual[j] = Math.abs(clue) == blobs[j] ? j : nextEqual[j + 1];
+			int last = row - w;
+			for (int b = 0; b <= m; b++) {
+				if (!scanLive[last + b])
+					continue;
+				// skip over clue i - 1: later steps can't pass its first anchor
+				int firstAnchor = Math.min(scanAnchor[last + b], nextEqual[b]);
+				// and it must be packed into the free space
+				int blob = scanBlob[last + b];
+				int blobBuf = scanBuf[last + b];
+				while (blob < firstAnchor && !(blobs[blob] < 0 && blobBuf >= clue)) {
+					blob++;
+					blobBuf = blob < m ? -blobs[blob] : 0;
+				}
+				// the clues no longer fit, or (as the range only
+				// shrinks from here on) there's nowhere left to step
+				if (blob >= firstAnchor)
+					continue;
+				blobBuf -= clue + 1;
+				markSteps(blob + 1, firstAnchor);
+				scanLive[row + b] = true;
+				scanAnchor[row + b] = firstAnchor;
+				scanBlob[row + b] = blob;
+				scanBuf[row + b] = blobBuf;
+			}
+		}
+		for (int b = 0; b <= m; b++) {
+			if (!reach[row + b])
+				continue;
+			// with no clues skipped, no punctuated blob can be either
+			markSteps(b, nextPunctuated[b]);
+			// this scan has skipped nothing yet, so it replaces any other out of b
+			scanLive[row + b] = true;
+			scanAnchor[row + b] = m;
+			scanBlob[row + b] = b;
+			scanBuf[row + b] = b < m ? -blobs[b] : 0;
+		}
+		int open = 0;
+		for (int j = 0; j < m; j++) {
+			open += stepEdges[j];
+			if (open > 0 && Math.abs(clues[i]) == blobs[j]) {
+				fitsLeft[row + j] = true;
+				reach[row + w + j + 1] = true;
+			}
+		}
+	}
+
+	/**
+	 * Marks the blobs [lo, hi] as ones the current clue can step to.
+	 */
+	private void markSteps(int lo, int hi) {
+		stepEdges[lo]++;
+		stepEdges[hi + 1]--;
+	}
+
+	/**
+	 * Follows every step of a chain out of the point (a, b): either
+	 * to an anchor (i, j), or to the end of the line. The clues
+	 * [a, i) and blobs [b, j) skipped over must hold no anchor,
+	 * and the clues must fit into the free space, packed greedily.
+	 * @param clues The line's clues. A crossed (negative) clue
+	 * packs into any free blob.
+	 * @param k The number of clues.
+	 * @param a The first clue after the last anchor.
+	 * @param b The first blob after the last anchor.
+	 * @return Whether a chain out of (a, b) reaches the end of the
+	 * line, looking up the anchors in the backward table.
+	 */
+	private boolean scan(int[] clues, int k, int a, int b) {
+		int m = numBlobs;
+		int w = m + 1;
+		// with no clues skipped, no punctuated blob can be either
+		int firstPunctuated = nextPunctuated[b];
+		// the first anchor at or after blob b in any clue skipped so far
+		int firstAnchor = m;
+		// greedy packing of the skipped clues into the free space
+		int blob = b;
+		int blobBuf = blob < m ? -blobs[blob] : 0;
+		int lastBlob = b - 1; // the blob the last skipped clue went in
+		for (int i = a; i <= k; i++) {
+			// the range of blobs j the step can go to
+			int lo = i == a ? b : lastBlob + 1;
+			int hi = Math.min(i == a ? firstPunctuated : m, firstAnchor);
+			if (i == k)
+				return lo <= m && m <= hi;
+			// the range only shrinks from here on
+			if (lo > hi)
+				return false;
+			for (int j = lo; j <= hi && j < m; j++)
+				if (Math.abs(clues[i]) == blobs[j] && fitsRight[(i + 1) * w + j + 1])
+					return true;
+			// skip over clue i: later steps can't pass its first anchor
+			for (int j = b; j < firstAnchor; j++)
+				if (Math.abs(clues[i]) == blobs[j])
+					firstAnchor = j;
+			// and it must be packed into the free space
+			while (blob < m && !(blobs[blob] < 0 && blobBuf >= clues[i])) {
+				blob++;
+				blobBuf = blob < m ? -blobs[blob] : 0;
+			}
+			if (blob >= m)
+				return false; // the clues no longer fit
+			blobBuf -= clues[i] + 1;
+			lastBlob = blob;
+		}
+		return false;
+	}
+
+}
@@ -1,6 +1,7 @@
 package picnix.puzzle;
 
 import java.awt.Graphics;
+import java.awt.event.KeyEvent;
 import java.awt.image.BufferedImage;
 
 import engine.Engine;
@@ -8,13 +9,20 @@ import engine.Input;
 import resource.bank.ImageBank;
 import state.PuzzleState;
 import state.element.Container;
+import state.element.Scroller;
 import state.element.puzzle.ToolButton;
 import util.Animation;
 
 public class Field extends Container {
 
+	// the smallest field; bigger boards get a bigger field
 	public static final int FIELD_WIDTH = 1000;
 	public static final int FIELD_HEIGHT = 675;
+	// grass kept around the blanket and its clues on big fields
+	private static final int FIELD_MARGIN = 100;
+	// the background image is cut into 10 x 15 tiles, 100 x 45 each
+	private static final int TILE_W = 100, TILE_H = 45;
+	private static final int TILE_COLS = 10, TILE_ROWS = 15;
 	
 	private static final int EDGE_SCROLL_THRESHOLD = 20;
 	private static final int EDGE_SCROLL_AMOUNT = 3;
@@ -24,6 +32,8 @@ public class Field extends Container {
 	// the picnic blanket, which has the puzzle loaded
 	private Blanket blanket;
 
+	// size of this field
+	private int fieldW, fieldH;
 	// position of the camera over the field
 	private int camX, camY;
 	// camera size (screen size)
@@ -37,16 +47,18 @@ public class Field extends Container {
 	private BufferedImage[] fieldBackground;
 	
 	public Field(PuzzleState puzState, int worldId) {
-		super(0, 0, Engine.SCREEN_WIDTH, Engine.SCREEN_HEIGHT, FIELD_WIDTH, FIELD_HEIGHT);
+		super(0, 0, Engine.SCREEN_WIDTH, Engine.SCREEN_HEIGHT, getFieldWidth(puzState), getFieldHeight(puzState));
 		this.puzState = puzState;
+		fieldW = getInnerWidth();
+		fieldH = getInnerHeight();
 		setScrollersEnabled(false);
 		setZ(-100);
 		fieldBackground = ImageBank.tiledBackgrounds[worldId];
 		blanket = new Blanket(this);
 		int bw = puzState.getPuzzleDisplayWidth();
 		int bh = puzState.getPuzzleDisplayHeight();
-		int bx = (FIELD_WIDTH - bw) / 2;
-		int by = (FIELD_HEIGHT - bh) / 2;
+		int bx = (fieldW - bw) / 2;
+		int by = (fieldH - bh) / 2;
 		blanket.setBounds(bx, by, bw, bh);
 		add(blanket);
 		// set to padded center camera
@@ -54,6 +66,36 @@ public class Field extends Container {
 		setCamY(getCamCenterY(true));
 	}
 
+	/**
+	 * Works out how wide a field needs to be to fit a puzzle,
+	 * with its clues (on both sides, so it stays centered).
+	 * @param puzState The puzzle state.
+	 * @return The field width.
+	 */
+	private static int getFieldWidth(PuzzleState puzState) {
+		int needed = puzState.getPuzzleDisplayWidth() + 2 * (puzState.getPuzzleLeftPadding() + FIELD_MARGIN);
+		return Math.max(FIELD_WIDTH, needed);
+	}
+	
+	/**
+	 * Works out how tall a field needs to be to fit a puzzle,
+	 * with its clues (on both sides, so it stays centered).
+	 * @param puzState The puzzle state.
+	 * @return The field height.
+	 */
+	private static int getFieldHeight(PuzzleState puzState) {
+		int needed = puzState.getPuzzleDisplayHeight() + 2 * (puzState.getPuzzleTopPadding() + FIELD_MARGIN);
+		return Math.max(FIELD_HEIGHT, needed);
+	}
+	
+	public int getFieldWidth() {
+		return fieldW;
+	}
+	
+	public int getFieldHeight() {
+		return fieldH;
+	}
+
 	public Blanket getBlanket() {
 		return blanket;
 	}
@@ -64,12 +106,12 @@ public class Field extends Container {
 	
 	public int getCamCenterX(boolean padded) {
 		int padding = padded ? puzState.getPuzzleLeftPadding() : 0;
-		return (FIELD_WIDTH - camW - padding) / 2;
+		return (fieldW - camW - padding) / 2;
 	}
 	
 	public int getCamCenterY(boolean padded) {
 		int padding = padded ? puzState.getPuzzleTopPadding() : 0;
-		return (FIELD_HEIGHT - camH - padding) / 2;
+		return (fieldH - camH - padding) / 2;
 	}
 	
 	
@@ -79,11 +121,11 @@ public class Field extends Container {
 	}
 	
 	public void setCamX(int newX) {
-		camX = Math.max(0, Math.min(FIELD_WIDTH - camW, newX));
+		camX = Math.max(0, Math.min(fieldW - camW, newX));
 	}
 	
 	public void setCamY(int newY) {
-		camY = Math.max(0, Math.min(FIELD_HEIGHT - camH, newY));
+		camY = Math.max(0, Math.min(fieldH - camH, newY));
 	}
 	
 	@Override
@@ -153,6 +195,27 @@ public class Field extends Container {
 		}
 	}
 	
+	/**
+	 * Pans the camera with the mouse wheel
+	 * (sideways if shift is held), instead of using Scrollers.
+	 */
+	@Override
+	public void tryScroll() {
+		if (!isEnabled())
+			return;
+		Input input = Input.getInstance();
+		int scroll = (int) (input.getUnconsumedScrollAmount() * Scroller.SCROLL_WHEEL_NUDGE_AMOUNT);
+		if (scroll == 0)
+			return;
+		camXAnim = null;
+		camYAnim = null;
+		if (input.isPressingKey(KeyEvent.VK_SHIFT))
+			setCamX(camX + scroll);
+		else
+			setCamY(camY + scroll);
+		puzState.setCenterEnabled(true);
+	}
+	
 	@Override
 	public void render(Graphics g) {
 		// updating drag cam position during render
@@ -172,11 +235,12 @@ public class Field extends Container {
 				setCamY(camYAnim.getIntValue());
 		}
 		// background tiling / chunking ;)
+		// (bigger fields repeat the background)
 		g.translate(-camX, -camY);
-		for (int x = camX / 100; x * 100 < Engine.SCREEN_WIDTH + camX; x++) {
-			for (int y = camY / 45; y * 45 < Engine.SCREEN_HEIGHT + camY; y++) {
-				BufferedImage tile = fieldBackground[x + y * 10];
-				g.drawImage(tile, x * 100, y * 45, null);
+		for (int x = camX / TILE_W; x * TILE_W < Engine.SCREEN_WIDTH + camX; x++) {
+			for (int y = camY / TILE_H; y * TILE_H < Engine.SCREEN_HEIGHT + camY; y++) {
+				BufferedImage tile = fieldBackground[x % TILE_COLS + (y % TILE_ROWS) * TILE_COLS];
+				g.drawImage(tile, x * TILE_W, y * TILE_H, null);
 			}
 		}
 		g.translate(camX, camY);
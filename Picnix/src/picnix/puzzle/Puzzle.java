@@ -1,5 +1,9 @@
 package picnix.puzzle;
 
+/**
+ * One attempt at solving a puzzle: the player's marks, clue
+ * crossing, and counters, over a shared {@link PuzzleDefinition}.
+ */
 public class Puzzle {
 
 	public static final int EMPTY = -1;
@@ -11,25 +15,48 @@ public class Puzzle {
 	private int rows;
 	private int columns;
 	
-	// the grid holding the puzzle solution (image)
-	private boolean[][] solution;
-	// grid holding the player's marks (unmarked, marked, flagged)
-	private int[][] marks;
+	// the solution and clues, shared with other attempts
+	private PuzzleDefinition definition;
+	// bitboards holding the player's marks, one per kind of mark
+	// (a cell with no bit set in any of them is unmarked)
+	private BitGrid filled;
+	private BitGrid flagged;
+	private BitGrid maybeFilled;
+	private BitGrid maybeFlagged;
 	
-	// clue lists for rows and columns
+	// this attempt's copies of the clue lists,
+	// where crossed clues are negated
 	private int[][] rowClues;
 	private int[][] colClues;
 
 	// counters for various info about cells and user marks
 	private int correctFilledCells;
 	private int filledCells;
-	private int solutionFilledCells;
 	
-	// maintains whether the user's marks are a solution for the puzzle
-	private boolean solved;
-	// indicates whether the "solved" boolean is up-to-date
-	// i.e.: (dirty = true when the user makes a mark)
-	private boolean solvedStateDirty;
+	// whether each line's filled marks match its clues
+	private boolean[] rowSatisfied;
+	private boolean[] colSatisfied;
+	// the number of rows and columns not yet satisfied;
+	// the user's marks are a solution when this hits zero
+	private int unsatisfiedLines;
+	
+	// bumped whenever a cell in the row or column changes mark,
+	// so caches of per-line results know when they are stale
+	private int[] rowVersions;
+	private int[] colVersions;
+	
+	// scratch space for auto-crossing clues, reused for every line
+	private ClueMatcher clueMatcher;
+	
+	// while batching, lines touched by markSpot are only
+	// listed here, then updated once when the batch is committed
+	private boolean batching;
+	private boolean[] rowTouched;
+	private boolean[] colTouched;
+	private int[] touchedRows;
+	private int[] touchedCols;
+	private int numTouchedRows;
+	private int numTouchedCols;
 	
 	/**
 	 * Creates a puzzle with the given 2D boolean array
@@ -37,18 +64,51 @@ public class Puzzle {
 	 * @param sol A 2D boolean array, the puzzle's solution.
 	 */
 	public Puzzle(boolean[][] sol) {
-		solution = sol.clone();
-		rows = solution.length;
-		columns = solution[0].length;
-		marks = new int[rows][columns];
-		// initialize marks to -1
+		this(new PuzzleDefinition(sol));
+	}
+	
+	/**
+	 * Starts a fresh attempt at a puzzle, with no marks.
+	 * @param definition The puzzle's solution and clues.
+	 */
+	public Puzzle(PuzzleDefinition definition) {
+		this.definition = definition;
+		rows = definition.getRows();
+		columns = definition.getColumns();
+		// all marks start out cleared (EMPTY)
+		filled = new BitGrid(rows, columns);
+		flagged = new BitGrid(rows, columns);
+		maybeFilled = new BitGrid(rows, columns);
+		maybeFlagged = new BitGrid(rows, columns);
+		// copy clues, since this attempt crosses them
+		rowClues = new int[rows][];
+		colClues = new int[columns][];
 		for (int r = 0; r < rows; r++)
-			for (int c = 0; c < columns; c++)
-				marks[r][c] = EMPTY;
-		// meaning: it's not known if the puzzle is currently solved
-		solvedStateDirty = true;
-		// calculate clues
-		calculateClues();
+			rowClues[r] = definition.getClueRow(r).clone();
+		for (int c = 0; c < columns; c++)
+			colClues[c] = definition.getClueColumn(c).clone();
+		clueMatcher = new ClueMatcher(Math.max(rows, columns));
+		// with no marks, only lines without clues are satisfied
+		rowSatisfied = new boolean[rows];
+		colSatisfied = new boolean[columns];
+		unsatisfiedLines = rows + columns;
+		for (int r = 0; r < rows; r++)
+			updateRowSatisfied(r);
+		for (int c = 0; c < columns; c++)
+			updateColumnSatisfied(c);
+		rowVersions = new int[rows];
+		colVersions = new int[columns];
+		rowTouched = new boolean[rows];
+		colTouched = new boolean[columns];
+		touchedRows = new int[rows];
+		touchedCols = new int[columns];
+	}
+	
+	/**
+	 * @return The puzzle's solution and clues.
+	 */
+	public PuzzleDefinition getDefinition() {
+		return definition;
 	}
 	
 	public int getRows() {
@@ -63,91 +123,6 @@ public class Puzzle {
 		return row >= 0 && row < rows && col >= 0 && col < columns;
 	}
 	
-	private void calculateClues() {
-		// initialize clue arrays
-		rowClues = new int[rows][];
-		colClues = new int[columns][];
-		// determine number of clues for each row
-		for (int r = 0; r < rows; r++) {
-			int num = 0;
-			boolean chain = false;
-			for (int c = 0; c < columns; c++) {
-				if (solution[r][c]) {
-					if (!chain)
-						num++;
-					chain = true;
-				}
-				else
-					chain = false;
-			}
-			//if (num == 0)
-			//	rowClues[r] = new int[] {0};
-			//else
-				rowClues[r] = new int[num];
-		}
-		// determine number of clues for each col
-		for (int c = 0; c < columns; c++) {
-			int num = 0;
-			boolean chain = false;
-			for (int r = 0; r < rows; r++) {
-				if (solution[r][c]) {
-					if (!chain)
-						num++;
-					chain = true;
-				}
-				else
-					chain = false;
-			}
-			//if (num == 0)
-			//	colClues[c] = new int[] {0};
-			//else
-				colClues[c] = new int[num];
-		}
-		// set clue numbers for each row
-		for (int r = 0; r < rows; r++) {
-			int num = 0;
-			int chain = 0;
-			for (int c = 0; c < columns; c++) {
-				if (solution[r][c]) {
-					if (chain == 0)
-						num++;
-					chain++;
-				}
-				else {
-					if (chain != 0)
-						rowClues[r][num - 1] = chain;
-					chain = 0;
-				}
-			}
-			if (chain != 0)
-				rowClues[r][num - 1] = chain;
-		}
-		// set clue numbers for each col
-		for (int c = 0; c < columns; c++) {
-			int num = 0;
-			int chain = 0;
-			for (int r = 0; r < rows; r++) {
-				if (solution[r][c]) {
-					if (chain == 0)
-						num++;
-					chain++;
-				}
-				else {
-					if (chain != 0)
-						colClues[c][num - 1] = chain;
-					chain = 0;
-				}
-			}
-			if (chain != 0)
-				colClues[c][num - 1] = chain;
-		}
-		// done with clues
-		// count filled squares
-		for (int i = 0; i < rowClues.length; i++)
-			for (int j = 0; j < rowClues[i].length; j++)
-				solutionFilledCells += rowClues[i][j];
-	}
-
 	public int[] getClueRow(int row) {
 		return rowClues[row];
 	}
@@ -157,21 +132,15 @@ public class Puzzle {
 	}
 	
 	public int getLongestRowClueList() {
-		int max = rowClues[0].length;
-		for (int i = 1; i < rowClues.length; i++)
-			max = Math.max(max, rowClues[i].length);
-		return max;
+		return definition.getLongestRowClueList();
 	}
 	
 	public int getLongestColumnClueList() {
-		int max = colClues[0].length;
-		for (int i = 1; i < colClues.length; i++)
-			max = Math.max(max, colClues[i].length);
-		return max;
+		return definition.getLongestColumnClueList();
 	}
 	
 	public int getFilledCellsInSolution() {
-		return solutionFilledCells;
+		return definition.getFilledCellsInSolution();
 	}
 
 	public double getIncorrectCells() {
@@ -183,7 +152,7 @@ public class Puzzle {
 	}
 
 	public int getRemainingFillCount() {
-		return solutionFilledCells - filledCells;
+		return definition.getFilledCellsInSolution() - filledCells;
 	}
 
 	public int[] getHorizontalBlob(int row, int col, int drawMode) {
@@ -223,95 +192,201 @@ public class Puzzle {
 	public boolean markSpot(int row, int col, int flag) {
 		boolean mistake = false;
 		int oldMark = getMark(row, col);
-		marks[row][col] = flag;
+		// move the cell's bit from the old mark's board to the new one
+		BitGrid oldBoard = getBoard(oldMark);
+		if (oldBoard != null)
+			oldBoard.set(row, col, false);
+		BitGrid newBoard = getBoard(flag);
+		if (newBoard != null)
+			newBoard.set(row, col, true);
+		rowVersions[row]++;
+		colVersions[col]++;
 		if (oldMark != FILLED && flag == FILLED) {
 			filledCells++;
-			if (solution[row][col])
+			if (definition.isFilledInSolution(row, col))
 				correctFilledCells++;
 			else
 				mistake = true;
 		}
 		else if (oldMark == FILLED && flag != FILLED) {
 			filledCells--;
-			if (solution[row][col])
+			if (definition.isFilledInSolution(row, col))
 				correctFilledCells--;
 		}
+		// in a batch, the line work waits for commitBatch
+		if (batching) {
+			if (!rowTouched[row]) {
+				rowTouched[row] = true;
+				touchedRows[numTouchedRows++] = row;
+			}
+			if (!colTouched[col]) {
+				colTouched[col] = true;
+				touchedCols[numTouchedCols++] = col;
+			}
+			return mistake;
+		}
+		// only filled marks count toward the clues
+		if (oldMark == FILLED || flag == FILLED) {
+			updateRowSatisfied(row);
+			updateColumnSatisfied(col);
+		}
 		tryCrossingRowClues(row);
 		tryCrossingColumnClues(col);
-		solvedStateDirty = true;
 		return mistake;
 	}
 	
+	/**
+	 * Starts a batch of marks. Until {@link #commitBatch()}, markSpot
+	 * only moves the cell's mark and keeps the cell counters; clue
+	 * crossing and the solved state are brought up to date once per
+	 * touched row and column when the batch is committed.
+	 * Batches don't nest.
+	 */
+	public void beginBatch() {
+		batching = true;
+	}
+	
+	/**
+	 * Ends a batch of marks, updating the clue crossing and
+	 * solved state of every line touched during it.
+	 * Does nothing if no batch was started.
+	 */
+	public void commitBatch() {
+		if (!batching)
+			return;
+		batching = false;
+		for (int i = 0; i < numTouchedRows; i++) {
+			int row = touchedRows[i];
+			rowTouched[row] = false;
+			updateRowSatisfied(row);
+			tryCrossingRowClues(row);
+		}
+		for (int i = 0; i < numTouchedCols; i++) {
+			int col = touchedCols[i];
+			colTouched[col] = false;
+			updateColumnSatisfied(col);
+			tryCrossingColumnClues(col);
+		}
+		numTouchedRows = 0;
+		numTouchedCols = 0;
+	}
+	
+	/**
+	 * Returns the bitboard that holds a kind of mark.
+	 * @param mark The mark.
+	 * @return The mark's board, or null for EMPTY.
+	 */
+	private BitGrid getBoard(int mark) {
+		switch (mark) {
+		case FILLED:
+			return filled;
+		case FLAGGED:
+			return flagged;
+		case MAYBE_FILLED:
+			return maybeFilled;
+		case MAYBE_FLAGGED:
+			return maybeFlagged;
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the live words of one kind of mark along a line.
+	 * Don't modify them.
+	 * @param mark The mark (not EMPTY).
+	 * @param rowMode If true, a row. Otherwise a column.
+	 * @param pos The row or column number.
+	 * @return The line's bits for that mark, 64 per word.
+	 */
+	public long[] getMarkLine(int mark, boolean rowMode, int pos) {
+		return getBoard(mark).getLine(rowMode, pos);
+	}
+	
+	/**
+	 * @return A number that changes whenever a mark in the row changes.
+	 */
+	public int getRowVersion(int row) {
+		return rowVersions[row];
+	}
+	
+	/**
+	 * @return A number that changes whenever a mark in the column changes.
+	 */
+	public int getColumnVersion(int col) {
+		return colVersions[col];
+	}
+	
 	public int getMark(int row, int col) {
-		return marks[row][col];
+		if (filled.get(row, col))
+			return FILLED;
+		if (flagged.get(row, col))
+			return FLAGGED;
+		if (maybeFilled.get(row, col))
+			return MAYBE_FILLED;
+		if (maybeFlagged.get(row, col))
+			return MAYBE_FLAGGED;
+		return EMPTY;
+	}
+	
+	/**
+	 * Checks whether there are any marks on the board.
+	 * @param guessesOnly If true, only counts guess (maybe) marks.
+	 * @return True if there is at least one such mark.
+	 */
+	public boolean hasMarks(boolean guessesOnly) {
+		if (!maybeFilled.isEmpty() || !maybeFlagged.isEmpty())
+			return true;
+		return !guessesOnly && (!filled.isEmpty() || !flagged.isEmpty());
 	}
 	
 	public boolean isFilledInSolution(int row, int col) {
-		return solution[row][col];
+		return definition.isFilledInSolution(row, col);
 	}
 	
+	/**
+	 * Checks whether the user's marks solve the puzzle, i.e.
+	 * whether every row and column matches its clues.
+	 * This is kept up to date by {@link #markSpot(int, int, int)}
+	 * (or, during a batch, by {@link #commitBatch()}).
+	 * @return True if the puzzle is solved.
+	 */
 	public boolean isSolved() {
-		if (solvedStateDirty)
-			updateSolved();
-		return solved;
-	}
-	
-	private void updateSolved() {
-		// updated!
-		solvedStateDirty = false;
-		// check that row hints match user marks
-		for (int r = 0; r < rows; r++) {
-			int num = 0;
-			int chain = 0;
-			for (int c = 0; c < columns; c++) {
-				if (marks[r][c] == FILLED) {
-					if (chain == 0)
-						num++;
-					chain++;
-				}
-				else {
-					if (chain != 0 && (num > rowClues[r].length
-							|| chain != Math.abs(rowClues[r][num - 1]))) {
-						solved = false;
-						return;
-					}
-					chain = 0;
-				}
-			}
-			if (chain != 0 && (num > rowClues[r].length
-					|| chain != Math.abs(rowClues[r][num - 1]))
-					|| num < rowClues[r].length) {
-				solved = false;
-				return;
-			}
-		}
-		// check that column hints match user marks
-		for (int c = 0; c < columns; c++) {
-			int num = 0;
-			int chain = 0;
-			for (int r = 0; r < rows; r++) {
-				if (marks[r][c] == FILLED) {
-					if (chain == 0)
-						num++;
-					chain++;
-				}
-				else {
-					if (chain != 0 && (num > colClues[c].length
-							|| chain != Math.abs(colClues[c][num - 1]))) {
-						solved = false;
-						return;
-					}
-					chain = 0;
-				}
-			}
-			if (chain != 0 && (num > colClues[c].length
-					|| chain != Math.abs(colClues[c][num - 1]))
-					|| num < colClues[c].length) {
-				solved = false;
-				return;
-			}
+		return unsatisfiedLines == 0;
+	}
+	
+	private void updateRowSatisfied(int row) {
+		boolean sat = lineMatchesClues(filled.getRow(row), columns, definition.getClueRow(row));
+		if (sat != rowSatisfied[row])
+			unsatisfiedLines += sat ? -1 : 1;
+		rowSatisfied[row] = sat;
+	}
+	
+	private void updateColumnSatisfied(int col) {
+		boolean sat = lineMatchesClues(filled.getColumn(col), rows, definition.getClueColumn(col));
+		if (sat != colSatisfied[col])
+			unsatisfiedLines += sat ? -1 : 1;
+		colSatisfied[col] = sat;
+	}
+	
+	/**
+	 * Checks whether the runs of filled cells in a line are
+	 * exactly the line's clues.
+	 * @param line The words of the line's filled bitboard.
+	 * @param length The length of the line.
+	 * @param clues The line's clues.
+	 * @return True if the line satisfies its clues.
+	 */
+	private static boolean lineMatchesClues(long[] line, int length, int[] clues) {
+		int num = 0;
+		int start = BitGrid.nextSet(line, 0, length);
+		while (start < length) {
+			int end = BitGrid.nextClear(line, start, length);
+			if (num >= clues.length || end - start != clues[num])
+				return false;
+			num++;
+			start = BitGrid.nextSet(line, end, length);
 		}
-		solved = true;
+		return num == clues.length;
 	}
 
 	/**
@@ -339,165 +414,8 @@ public class Puzzle {
 	 */
 	public void tryCrossing(boolean rowMode, int pos) {
 		int[] clues = rowMode ? rowClues[pos] : colClues[pos];
-		// go ahead and reset all clues to non-cleared
-		for (int i = 0; i < clues.length; i++)
-			clues[i] = Math.abs(clues[i]);
-		// count number of blobs
-		int numBlobs = 0;
-		int lastMark = FLAGGED; // so a blob starting at the left is counted
 		int length = rowMode ? columns : rows;
-		for (int g = 0; g < length; g++) {
-			int mark = rowMode ? marks[pos][g] : marks[g][pos];
-			// went from non-blob to blob
-			if (lastMark != mark && lastMark == FLAGGED)
-				numBlobs++;
-			lastMark = mark;
-		}
-		/* array of blob sizes - negative blob indicates "free space",
-		* i.e., a blob that has at least one open cell and therefore
-		* is not a complete/punctuated blob. we only try to cross
-		* clues for punctuated blobs, and use the free space to
-		* test how many p-blobs fit with a matching clue number
-		*/
-		int[] blobs = new int[numBlobs];
-		int blobNum = -1;
-		int blobSize = 0;
-		boolean punctuated = true;
-		lastMark = FLAGGED;
-		for (int g = 0; g < length; g++) {
-			int mark = rowMode ? marks[pos][g] : marks[g][pos];
-			// went from non-blob to blob
-			if (lastMark != mark && lastMark == FLAGGED) {
-				// reset everything
-				blobNum++;
-				blobSize = 0;
-				punctuated = true;
-			}
-			// if a blob cell
-			if (mark != FLAGGED) {
-				if (mark != FILLED) // if any in this blob is uncleared...
-					punctuated = false;
-				// another cell of blob reached
-				blobSize++;
-				// if an unpunctuated blob, mark as negative
-				blobs[blobNum] = punctuated ? blobSize : -blobSize;
-			}
-			lastMark = mark;
-		}
-		// keeps track of which clue a blob has been matched to
-		// if an already matched blob tries to match another clue,
-		// then unmatch the first clue and prevent further matches
-		final int NEVER_MATCHED = -1;
-		final int MATCH_BANNED = -2;
-		int[] blobClueMatch = new int[numBlobs];
-		for (int i = 0; i < numBlobs; i++)
-			blobClueMatch[i] = NEVER_MATCHED;
-		// match clues to blobs
-		for (int i = 0; i < clues.length; i++) {
-			int matchedBlob = NEVER_MATCHED;
-			for (int j = 0; j < blobs.length; j++) {
-				if (clues[i] == blobs[j]) {	// blob matches to this clue. see if it fits in this spot
-					boolean fitsLeft = matches(clues, blobs, 0, i, 0, j);
-					boolean fitsRight = matches(clues, blobs, i + 1, clues.length, j + 1, blobs.length);
-					// the blob is a match for this clue
-					if (fitsLeft && fitsRight) {
-						if (blobClueMatch[j] != NEVER_MATCHED) { // this blob has matched more than one clue
-							if (blobClueMatch[j] != MATCH_BANNED) { // need to undo & ban match
-								int oldIndex = blobClueMatch[j]; // the previous matched clue
-								clues[oldIndex] = Math.abs(clues[oldIndex]); // uncross the clue (ambiguous!)
-								blobClueMatch[j] = MATCH_BANNED; // ban this blob from matches
-							}
-							matchedBlob = MATCH_BANNED; // this clue can't be crossed - ambiguous
-						}
-						else { // blob's first match
-							blobClueMatch[j] = i;
-							matchedBlob = matchedBlob == NEVER_MATCHED ? j : MATCH_BANNED;
-						}
-					}
-				}
-			}
-			if (matchedBlob > NEVER_MATCHED)// if exactly one match found:
-				clues[i] = -clues[i]; // cross out the clue
-		}
-	}
-	
-	/**
-	 * This is a work of art.
-	 * @param clues
-	 * @param blobs
-	 * @param clueLow
-	 * @param clueHigh
-	 * @param blobLow
-	 * @param blobHigh
-	 * @return A work of art.
-	 */
-	private boolean matches(int[] clues, int[] blobs, int clueLow, int clueHigh, int blobLow, int blobHigh) {
-		/**
-		 * Based on the clue list, try all blobs
-		 * that match a given clue to see if any match.
-		 * The result is true if any match, otherwise false.
-		 * For each attempted match, recurse to test.
-		 * At a base case, if there are only unpunctuated
-		 * blobs, then we only need to see if the clues
-		 * can fit within this free space blob.
-		 * Also, if there are no clues, the match is
-		 * trivially successful.
-		 */
-		if (clueHigh - clueLow < 1) { // no clues to fit!
-			for (int i = blobLow; i < blobHigh; i++)
-				if (blobs[i] > 0) // if there are any punctuated blobs
-					return false; // then this must not be a match
-			return true; // otherwise, no clues means nothing to match
-		}
-		else if (blobHigh - blobLow < 1) // clues, but no blobs
-			return false;
-		int matchingBlobs = 0;
-		// match clues to blobs
-		for (int i = clueLow; i < clueHigh; i++) {
-			for (int j = blobLow; j < blobHigh; j++) {
-				// blob matches to this clue, see if it fits in this spot
-				if (Math.abs(clues[i]) == blobs[j]) {
-					matchingBlobs++;
-					boolean matchLeft = matches(clues, blobs, clueLow, i, blobLow, j);
-					boolean matchRight = matches(clues, blobs, i + 1, clueHigh, j + 1, blobHigh);
-					if (matchLeft && matchRight)
-						return true;
-				}
-			}
-		}
-		// blobs matched clue, but didn't fit
-		if (matchingBlobs > 0)
-			return false;
-		else { // no more matching blobs - just fit clues within space
-			int curClue = clueLow; // the current clue we're fitting clues into a blob
-			for (int i = blobLow; i < blobHigh; i++) {
-				if (blobs[i] > 0) // not a free space blob
-					continue;
-				int blobBuf = Math.abs(blobs[i]); // amount of space
-				while (blobBuf >= clues[curClue]) { // at least enough room for a clue
-					// subtract room taken for this clue, plus one for punctuation
-					blobBuf -= clues[curClue++] + 1; // (also increment clue index)
-					if (curClue >= clueHigh) // fit all the clues needed
-						return true;
-				}
-			}
-			// couldn't fit into blobs
-			return false;
-		}
-	}
-
-	/**
-	 * Creates a random puzzle with given width and height.
-	 * @param width Width of the puzzle to generate.
-	 * @param height Height of the puzzle to generate.
-	 * @return
-	 */
-	public static Puzzle genPuzzle(int width, int height) {
-		boolean[][] grid = new boolean[height][width];
-		for (int i = 0; i < height; i++)
-			for (int j = 0; j < width; j++)
-				grid[i][j] = Math.random() < 0.6;
-		return new Puzzle(grid);
+		clueMatcher.cross(clues, filled.getLine(rowMode, pos), flagged.getLine(rowMode, pos), length);
 	}
 	
 }
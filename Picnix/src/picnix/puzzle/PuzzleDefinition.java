@@ -0,0 +1,159 @@
+package picnix.puzzle;
+
+/**
+ * The unchanging part of a puzzle: its solution, clues, and the
+ * counts worked out from them. A definition is never modified
+ * after it is made, so it can be cached and shared - by every
+ * attempt at a level, and by solvers or hint workers on other
+ * threads - while each attempt keeps its marks in a {@link Puzzle}.
+ */
+public class PuzzleDefinition {
+
+	private final int rows;
+	private final int columns;
+
+	// the grid holding the puzzle solution (image)
+	private final BitGrid solution;
+	// clue lists for rows and columns (never crossed)
+	private final int[][] rowClues;
+	private final int[][] colClues;
+	private final int solutionFilledCells;
+	private final int longestRowClueList;
+	private final int longestColClueList;
+
+	/**
+	 * Creates a puzzle definition with the given 2D boolean array
+	 * representing the cleared grids in the puzzle's solution.
+	 * @param sol A 2D boolean array, the puzzle's solution.
+	 */
+	public PuzzleDefinition(boolean[][] sol) {
+		this(new BitGrid(sol));
+	}
+
+	/**
+	 * Creates a puzzle definition from a solution already packed
+	 * into bits, working out its clues.
+	 * @param sol The puzzle's solution. It's kept, so don't modify it.
+	 */
+	public PuzzleDefinition(BitGrid sol) {
+		solution = sol;
+		rows = solution.getRows();
+		columns = solution.getColumns();
+		// clues are the runs of filled cells along each line
+		rowClues = new int[rows][];
+		colClues = new int[columns][];
+		for (int r = 0; r < rows; r++)
+			rowClues[r] = runLengths(solution.getRow(r), columns);
+		for (int c = 0; c < columns; c++)
+			colClues[c] = runLengths(solution.getColumn(c), rows);
+		solutionFilledCells = solution.count();
+		longestRowClueList = longest(rowClues);
+		longestColClueList = longest(colClues);
+	}
+
+	/**
+	 * Creates a puzzle definition from a solution and its clues,
+	 * as stored in a world file, without working the clues out again.
+	 * @param sol A 2D boolean array, the puzzle's solution.
+	 * @param rowClues The clue list for each row.
+	 * @param colClues The clue list for each column.
+	 * @param filledCells The number of filled cells in the solution.
+	 */
+	public PuzzleDefinition(boolean[][] sol, int[][] rowClues, int[][] colClues, int filledCells) {
+		this(new BitGrid(sol), rowClues, colClues, filledCells);
+	}
+
+	/**
+	 * Creates a puzzle definition from a packed solution and its clues.
+	 * @param sol The puzzle's solution. It's kept, so don't modify it.
+	 * @param rowClues The clue list for each row.
+	 * @param colClues The clue list for each column.
+	 * @param filledCells The number of filled cells in the solution.
+	 */
+	public PuzzleDefinition(BitGrid sol, int[][] rowClues, int[][] colClues, int filledCells) {
+		solution = sol;
+		rows = solution.getRows();
+		columns = solution.getColumns();
+		this.rowClues = rowClues;
+		this.colClues = colClues;
+		solutionFilledCells = filledCells;
+		longestRowClueList = longest(rowClues);
+		longestColClueList = longest(colClues);
+	}
+
+	/**
+	 * Lists the lengths of the runs of set bits along a line.
+	 * @param line The line's words.
+	 * @param length The length of the line.
+	 * @return The run lengths, in order.
+	 */
+	private static int[] runLengths(long[] line, int length) {
+		// determine number of runs
+		int num = 0;
+		int start = BitGrid.nextSet(line, 0, length);
+		while (start < length) {
+			num++;
+			start = BitGrid.nextSet(line, BitGrid.nextClear(line, start, length), length);
+		}
+		// set run lengths
+		int[] runs = new int[num];
+		num = 0;
+		start = BitGrid.nextSet(line, 0, length);
+		while (start < length) {
+			int end = BitGrid.nextClear(line, start, length);
+			runs[num++] = end - start;
+			start = BitGrid.nextSet(line, end, length);
+		}
+		return runs;
+	}
+
+	private static int longest(int[][] clues) {
+		int max = 0;
+		for (int i = 0; i < clues.length; i++)
+			max = Math.max(max, clues[i].length);
+		return max;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Returns a row's clues. The array is shared, so don't modify it.
+	 * @param row The row.
+	 * @return The row's clues, all positive.
+	 */
+	public int[] getClueRow(int row) {
+		return rowClues[row];
+	}
+
+	/**
+	 * Returns a column's clues. The array is shared, so don't modify it.
+	 * @param col The column.
+	 * @return The column's clues, all positive.
+	 */
+	public int[] getClueColumn(int col) {
+		return colClues[col];
+	}
+
+	public int getLongestRowClueList() {
+		return longestRowClueList;
+	}
+
+	public int getLongestColumnClueList() {
+		return longestColClueList;
+	}
+
+	public int getFilledCellsInSolution() {
+		return solutionFilledCells;
+	}
+
+	public boolean isFilledInSolution(int row, int col) {
+		return solution.get(row, col);
+	}
+
+}
@@ -1,42 +1,37 @@
 package picnix.puzzle;
 
+/**
+ * The cells changed by one stroke (a drag, a clear, or an undo),
+ * with the mark each held before. Each change is packed into an int.
+ * A Stroke is reused by its owner, so one that is finished should be
+ * pushed to an {@link UndoLog}, which copies it.
+ */
 public class Stroke {
-	
-	public static int STROKE_BANK_SIZE = 50;
-	private static Stroke[] strokeBelt = new Stroke[STROKE_BANK_SIZE];
-	
-	private static int beltHead = 0;
-	
+
 	private int numChanged;
-	private int[][] changed;
-	
+	private int[] changed;
+
 	private boolean mistaken;
-	private int[] mistake;
-	
+	private int mistakeRow;
+	private int mistakeCol;
+	private int mistakeMark;
+
 	private int layerId;
 
-	public static final int ROW = 0;
-	public static final int COL = 1;
-	public static final int MARK = 2;
-	
-	private static final int MAX_CHANGES = 500;
-	
-	private Stroke(int layerId) {
-		this.layerId = layerId;
-		changed = new int[10][3];
-		mistake = new int[3];
+	public Stroke() {
+		changed = new int[16];
 	}
-	
-	public static Stroke newStroke(int layerId) {
-		if (strokeBelt[beltHead] == null)
-			strokeBelt[beltHead] = new Stroke(layerId);
-		else
-			strokeBelt[beltHead].numChanged = 0;
-		Stroke newStroke = strokeBelt[beltHead];
-		beltHead = (beltHead + 1) % STROKE_BANK_SIZE;
-		return newStroke;
+
+	/**
+	 * Empties the stroke for reuse.
+	 * @param layerId The layer the stroke is made on.
+	 */
+	public void reset(int layerId) {
+		this.layerId = layerId;
+		numChanged = 0;
+		mistaken = false;
 	}
-	
+
 	public int size() {
 		return numChanged;
 	}
@@ -44,64 +39,69 @@ public class Stroke {
 	public boolean isEmpty() {
 		return numChanged == 0 && !mistaken;
 	}
-	
+
 	public int getLayerId() {
 		return layerId;
 	}
-	
+
 	public boolean hasMistake() {
 		return mistaken;
 	}
-	
+
 	public int getMistakeRow() {
-		return mistake[ROW];
+		return mistakeRow;
 	}
-	
+
 	public int getMistakeCol() {
-		return mistake[COL];
+		return mistakeCol;
 	}
-	
+
 	public int getMistakeMark() {
-		return mistake[MARK];
-	}
-	
-	public int[] getRecentChange(int lookback) {
-		if (lookback >= numChanged)
-			return null;
-		else
-			return changed[numChanged - lookback - 1];
+		return mistakeMark;
 	}
-	
-	public int[] getChange(int index) {
+
+	/**
+	 * @param index The change's index in the stroke.
+	 * @return The packed change; see {@link #getRow(int)} and friends.
+	 */
+	public int getChange(int index) {
 		return changed[index];
 	}
-	
+
+	public static int getRow(int change) {
+		return change >>> 16;
+	}
+
+	public static int getCol(int change) {
+		return (change >> 8) & 0xff;
+	}
+
+	public static int getMark(int change) {
+		return (change & 0xff) - 1;
+	}
+
 	public void addChange(int row, int col, int prevType, boolean miss) {
 		if (miss) {
 			// don't save change, but save its location
 			mistaken = true;
-			mistake[ROW] = row;
-			mistake[COL] = col;
-			mistake[MARK] = prevType;
-		}
-		else {
-			if (numChanged == changed.length)
-				if (!upsize()) return;
-			changed[numChanged][ROW] = row;
-			changed[numChanged][COL] = col;
-			changed[numChanged][MARK] = prevType;
-			numChanged++;
+			mistakeRow = row;
+			mistakeCol = col;
+			mistakeMark = prevType;
 		}
+		else
+			addPacked(row << 16 | col << 8 | (prevType + 1));
 	}
-	
-	private boolean upsize() {
-		if (numChanged >= MAX_CHANGES)
-			return false;
-		int[][] newChanged = new int[changed.length * 2][3];
-		for (int i = 0; i < changed.length; i++)
-			newChanged[i] = changed[i];
-		changed = newChanged;
-		return true;
+
+	/**
+	 * Adds an already packed change.
+	 */
+	void addPacked(int change) {
+		if (numChanged == changed.length) {
+			int[] newChanged = new int[changed.length * 2];
+			System.arraycopy(changed, 0, newChanged, 0, numChanged);
+			changed = newChanged;
+		}
+		changed[numChanged++] = change;
 	}
-	
+
 }
@@ -0,0 +1,201 @@
+package picnix.puzzle;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A stack of strokes for undo or redo, kept as packed ints in a ring
+ * buffer. Each stroke is stored as a header, its changes, and a footer
+ * (both holding its size and layer), so the newest stroke can be popped
+ * and the oldest dropped without looking at anything in between.
+ *
+ * Instead of a limit on strokes, the log has a memory budget: pushing
+ * past it drops the oldest strokes. The newest stroke is always kept,
+ * even if it alone is over budget, so a clear of a huge board can
+ * still be undone in one step.
+ */
+public class UndoLog {
+
+	// ints of bookkeeping per stroke (header and footer)
+	private static final int STROKE_OVERHEAD = 2;
+	private static final int MIN_CAPACITY = 64;
+
+	// the ring, always a power of two long
+	private int[] buffer;
+	// index of the oldest stroke's header
+	private int head;
+	// number of ints in use
+	private int length;
+	private int strokes;
+	// the most ints to keep, unless the newest stroke needs more
+	private int maxInts;
+
+	/**
+	 * Creates an empty log.
+	 * @param budgetBytes The memory to keep history within, in bytes.
+	 */
+	public UndoLog(int budgetBytes) {
+		// a power of two, so the ring never outgrows the budget
+		maxInts = Math.max(MIN_CAPACITY, Integer.highestOneBit(budgetBytes / Integer.BYTES));
+		buffer = new int[MIN_CAPACITY];
+	}
+
+	public boolean isEmpty() {
+		return strokes == 0;
+	}
+
+	public int getStrokeCount() {
+		return strokes;
+	}
+
+	/**
+	 * @return The memory the log's buffer takes up, in bytes.
+	 */
+	public int getMemoryUsed() {
+		return buffer.length * Integer.BYTES;
+	}
+
+	/**
+	 * Drops every stroke.
+	 */
+	public void clear() {
+		head = 0;
+		length = 0;
+		strokes = 0;
+	}
+
+	/**
+	 * Copies a stroke onto the top of the log, dropping the
+	 * oldest strokes if it would go over budget.
+	 * Strokes without changes aren't pushed.
+	 * @param s The stroke.
+	 */
+	public void push(Stroke s) {
+		int size = s.size();
+		if (size == 0)
+			return;
+		int needed = size + STROKE_OVERHEAD;
+		while (strokes > 0 && length + needed > maxInts)
+			dropOldest();
+		ensureCapacity(length + needed);
+		int mask = buffer.length - 1;
+		int pos = head + length;
+		int tag = size << 4 | (s.getLayerId() + 1);
+		buffer[pos++ & mask] = tag;
+		for (int i = 0; i < size; i++)
+			buffer[pos++ & mask] = s.getChange(i);
+		buffer[pos & mask] = tag;
+		length += needed;
+		strokes++;
+	}
+
+	/**
+	 * Takes the newest stroke off the log.
+	 * @param into A stroke to fill with the popped stroke's changes.
+	 */
+	public void pop(Stroke into) {
+		int mask = buffer.length - 1;
+		int tag = buffer[(head + length - 1) & mask];
+		int size = tag >>> 4;
+		into.reset((tag & 0xf) - 1);
+		int start = head + length - 1 - size;
+		for (int i = 0; i < size; i++)
+			into.addPacked(buffer[(start + i) & mask]);
+		length -= size + STROKE_OVERHEAD;
+		strokes--;
+	}
+
+	/**
+	 * Writes the log's strokes, oldest first.
+	 */
+	public void write(DataOutputStream dos) throws IOException {
+		dos.writeInt(strokes);
+		dos.writeInt(length);
+		// the ring as one block of bytes, unrolled
+		ByteBuffer bytes = ByteBuffer.allocate(length * Integer.BYTES);
+		int first = Math.min(length, buffer.length - head);
+		bytes.asIntBuffer().put(buffer, head, first).put(buffer, 0, length - first);
+		dos.write(bytes.array());
+	}
+
+	/**
+	 * Replaces the log's strokes with ones written by {@link #write}.
+	 * The strokes are checked first (their lengths against the bytes
+	 * left in the stream, and each change against the board), and the
+	 * log is left as it was if they don't fit.
+	 * @param dis The stream; its available() must be the bytes left,
+	 * as it is for a byte array.
+	 * @param rows The board's rows.
+	 * @param cols The board's columns.
+	 * @param layers The board's layers.
+	 */
+	public void read(DataInputStream dis, int rows, int cols, int layers) throws IOException {
+		int count = dis.readInt();
+		int ints = dis.readInt();
+		if (count < 0 || ints < 0 || ints > dis.available() / Integer.BYTES)
+			throw new IOException("bad history length " + ints);
+		byte[] bytes = new byte[ints * Integer.BYTES];
+		dis.readFully(bytes);
+		int[] saved = new int[ints];
+		ByteBuffer.wrap(bytes).asIntBuffer().get(saved);
+		// walk the strokes, checking each one's header, changes and footer
+		int pos = 0;
+		for (int s = 0; s < count; s++) {
+			if (pos == ints)
+				throw new IOException("history has fewer than " + count + " strokes");
+			int tag = saved[pos];
+			int size = tag >>> 4;
+			if (size == 0 || size > ints - pos - STROKE_OVERHEAD || saved[pos + size + 1] != tag
+					|| (tag & 0xf) - 1 >= layers)
+				throw new IOException("bad stroke at " + pos);
+			for (int i = pos + 1; i <= pos + size; i++)
+				if (!fits(saved[i], rows, cols))
+					throw new IOException("bad change at " + i);
+			pos += size + STROKE_OVERHEAD;
+		}
+		if (pos != ints)
+			throw new IOException("history has " + (ints - pos) + " ints after its last stroke");
+		clear();
+		ensureCapacity(ints);
+		System.arraycopy(saved, 0, buffer, 0, ints);
+		length = ints;
+		strokes = count;
+	}
+
+	/**
+	 * @return True if a packed change is of a cell on the board, to a real mark.
+	 */
+	private static boolean fits(int change, int rows, int cols) {
+		int mark = Stroke.getMark(change);
+		return Stroke.getRow(change) < rows && Stroke.getCol(change) < cols
+				&& (mark == Puzzle.EMPTY || mark == Puzzle.FILLED || mark == Puzzle.FLAGGED
+				|| mark == Puzzle.MAYBE_FILLED || mark == Puzzle.MAYBE_FLAGGED);
+	}
+
+	private void dropOldest() {
+		int size = buffer[head] >>> 4;
+		head = (head + size + STROKE_OVERHEAD) & (buffer.length - 1);
+		length -= size + STROKE_OVERHEAD;
+		strokes--;
+	}
+
+	/**
+	 * Grows the ring to hold a number of ints, unrolling it.
+	 */
+	private void ensureCapacity(int ints) {
+		if (ints <= buffer.length)
+			return;
+		int capacity = buffer.length;
+		while (capacity < ints)
+			capacity *= 2;
+		int[] bigger = new int[capacity];
+		int first = Math.min(length, buffer.length - head);
+		System.arraycopy(buffer, head, bigger, 0, first);
+		System.arraycopy(buffer, 0, bigger, first, length - first);
+		buffer = bigger;
+		head = 0;
+	}
+
+}
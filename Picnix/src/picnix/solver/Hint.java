@@ -0,0 +1,50 @@
+package picnix.solver;
+
+/**
+ * A cell whose mark is forced by the clues of a single line,
+ * given the marks the player has already made on that line.
+ */
+public class Hint {
+
+	private int row;
+	private int col;
+	private int mark;
+	private boolean byRow;
+
+	/**
+	 * Creates a hint.
+	 * @param row The row of the forced cell.
+	 * @param col The column of the forced cell.
+	 * @param mark The forced mark, Puzzle.FILLED or Puzzle.FLAGGED.
+	 * @param byRow If true, the cell's row forces it. Otherwise its column.
+	 */
+	public Hint(int row, int col, int mark, boolean byRow) {
+		this.row = row;
+		this.col = col;
+		this.mark = mark;
+		this.byRow = byRow;
+	}
+
+	public int getRow() {
+		return row;
+	}
+
+	public int getColumn() {
+		return col;
+	}
+
+	/**
+	 * @return The forced mark, Puzzle.FILLED or Puzzle.FLAGGED.
+	 */
+	public int getMark() {
+		return mark;
+	}
+
+	/**
+	 * @return True if the cell's row forces it, false if its column does.
+	 */
+	public boolean isForcedByRow() {
+		return byRow;
+	}
+
+}
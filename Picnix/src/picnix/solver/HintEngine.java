@@ -0,0 +1,198 @@
+package picnix.solver;
+
+import picnix.puzzle.Puzzle;
+import picnix.puzzle.PuzzleDefinition;
+
+/**
+ * Finds cells that the player's current marks force, one line
+ * at a time, for showing hints while a puzzle is being solved.
+ *
+ * Each row and column keeps the result of its last line solve,
+ * along with the Puzzle's version number for that line. A line
+ * is only solved again once a mark on it has changed, and stale
+ * lines are refreshed a few at a time within a time budget,
+ * so asking for a hint never stalls a frame.
+ */
+public class HintEngine {
+
+	// how long a call may spend refreshing stale lines
+	public static final long DEFAULT_BUDGET_NANOS = 2_000_000;
+
+	private Puzzle puzzle;
+	private int rows;
+	private int columns;
+
+	// clue lists by line id (rows, then columns), from the
+	// puzzle's definition, so always positive
+	private int[][] clues;
+	private LineSolver lineSolver;
+
+	// whether a line has been solved, and the version it was solved at
+	private boolean[] solved;
+	private int[] versions;
+	// each line's solved cells, using the Solver cell constants;
+	// cells the player already marked are left UNKNOWN
+	private byte[][] forced;
+	// the first forced cell in each line, or -1 if none
+	private int[] firstForced;
+	// the next line to check when refreshing
+	private int cursor;
+	// the last hint made, kept until its line is solved again
+	private Hint lastHint;
+	private int lastId;
+	private int lastPos;
+
+	/**
+	 * Creates a hint engine for a puzzle. No lines are solved
+	 * until hints are asked for (or {@link #update(long)} is called).
+	 * @param puzzle The puzzle being solved.
+	 */
+	public HintEngine(Puzzle puzzle) {
+		this.puzzle = puzzle;
+		rows = puzzle.getRows();
+		columns = puzzle.getColumns();
+		int lines = rows + columns;
+		PuzzleDefinition definition = puzzle.getDefinition();
+		clues = new int[lines][];
+		forced = new byte[lines][];
+		for (int id = 0; id < lines; id++) {
+			boolean rowMode = id < rows;
+			clues[id] = rowMode ? definition.getClueRow(id) : definition.getClueColumn(id - rows);
+			forced[id] = new byte[rowMode ? columns : rows];
+		}
+		solved = new boolean[lines];
+		versions = new int[lines];
+		firstForced = new int[lines];
+		lineSolver = new LineSolver(Math.max(rows, columns));
+	}
+
+	/**
+	 * Solves stale lines until all are fresh or the budget runs out.
+	 * Lines are taken round robin, so repeated calls catch up.
+	 * @param budgetNanos The most time to spend, in nanoseconds.
+	 * @return True if every line is fresh.
+	 */
+	public boolean update(long budgetNanos) {
+		long start = System.nanoTime();
+		int lines = rows + columns;
+		for (int n = 0; n < lines; n++) {
+			int id = cursor;
+			cursor = (cursor + 1) % lines;
+			if (!isStale(id))
+				continue;
+			refresh(id);
+			if (System.nanoTime() - start >= budgetNanos)
+				return !anyStale();
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the next forced cell, refreshing stale lines within
+	 * the default budget first.
+	 * @return A forced cell and the line forcing it, or null if
+	 * none is known (yet).
+	 */
+	public Hint getHint() {
+		update(DEFAULT_BUDGET_NANOS);
+		for (int id = 0; id < rows + columns; id++)
+			if (!isStale(id) && firstForced[id] >= 0)
+				return makeHint(id, firstForced[id]);
+		return null;
+	}
+
+	/**
+	 * Checks whether a single cell is forced by its row or column,
+	 * refreshing just those two lines if needed.
+	 * @param row The row of the cell.
+	 * @param col The column of the cell.
+	 * @return The hint for the cell, or null if it isn't forced.
+	 */
+	public Hint getCellHint(int row, int col) {
+		int rowId = row;
+		int colId = rows + col;
+		if (isStale(rowId))
+			refresh(rowId);
+		if (isStale(colId))
+			refresh(colId);
+		if (forced[rowId][col] != Solver.UNKNOWN)
+			return makeHint(rowId, col);
+		if (forced[colId][row] != Solver.UNKNOWN)
+			return makeHint(colId, row);
+		return null;
+	}
+
+	/**
+	 * Makes the hint for a forced cell, or hands back the last one
+	 * if it's the same (so holding the hint key doesn't allocate).
+	 */
+	private Hint makeHint(int id, int pos) {
+		if (lastHint != null && lastId == id && lastPos == pos)
+			return lastHint;
+		lastId = id;
+		lastPos = pos;
+		lastHint = makeNewHint(id, pos);
+		return lastHint;
+	}
+
+	private Hint makeNewHint(int id, int pos) {
+		boolean byRow = id < rows;
+		int mark = forced[id][pos] == Solver.FILLED ? Puzzle.FILLED : Puzzle.FLAGGED;
+		return byRow ? new Hint(id, pos, mark, true) : new Hint(pos, id - rows, mark, false);
+	}
+
+	private int getVersion(int id) {
+		return id < rows ? puzzle.getRowVersion(id) : puzzle.getColumnVersion(id - rows);
+	}
+
+	private boolean isStale(int id) {
+		return !solved[id] || versions[id] != getVersion(id);
+	}
+
+	private boolean anyStale() {
+		for (int id = 0; id < rows + columns; id++)
+			if (isStale(id))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Solves one line from the player's marks: filled cells are
+	 * filled, flagged cells are blank, and anything else is unknown.
+	 */
+	private void refresh(int id) {
+		boolean rowMode = id < rows;
+		int pos = rowMode ? id : id - rows;
+		byte[] line = forced[id];
+		int length = line.length;
+		long[] fills = puzzle.getMarkLine(Puzzle.FILLED, rowMode, pos);
+		long[] flags = puzzle.getMarkLine(Puzzle.FLAGGED, rowMode, pos);
+		for (int i = 0; i < length; i++) {
+			long bit = 1L << i;
+			if ((fills[i >>> 6] & bit) != 0)
+				line[i] = Solver.FILLED;
+			else if ((flags[i >>> 6] & bit) != 0)
+				line[i] = Solver.BLANK;
+			else
+				line[i] = Solver.UNKNOWN;
+		}
+		// the line's forced cells may change
+		if (id == lastId)
+			lastHint = null;
+		int found = lineSolver.solve(clues[id], line, length);
+		firstForced[id] = -1;
+		// keep only the newly forced cells
+		for (int i = 0; i < length; i++) {
+			long bit = 1L << i;
+			boolean marked = ((fills[i >>> 6] | flags[i >>> 6]) & bit) != 0;
+			// a contradiction (wrong marks) forces nothing
+			if (marked || found < 0)
+				line[i] = Solver.UNKNOWN;
+			else if (line[i] != Solver.UNKNOWN && firstForced[id] < 0)
+				firstForced[id] = i;
+		}
+		solved[id] = true;
+		versions[id] = getVersion(id);
+	}
+
+}
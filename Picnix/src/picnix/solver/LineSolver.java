@@ -0,0 +1,204 @@
+package picnix.solver;
+
+/**
+ * Solves a single row or column of a puzzle as completely as
+ * the clues allow, without looking at any other lines.
+ *
+ * A cell is deduced when every placement of the clue blocks
+ * that agrees with the already known cells puts it on the
+ * same side (filled or blank). Placements are counted with a
+ * forward and a backward table over (clue, cell) pairs, so a
+ * line costs O(length * clues) and nothing is allocated once
+ * the scratch buffers are big enough.
+ */
+public class LineSolver {
+
+	// prefix counts of known cells, used for O(1) range checks
+	private int[] filledCount;
+	private int[] blankCount;
+	// fwd[i * (n + 1) + j]: clues [0, i) fit in cells [0, j)
+	private boolean[] fwd;
+	// bwd[i * (n + 1) + j]: clues [i, k) fit in cells [j, n)
+	private boolean[] bwd;
+	// difference array counting block placements over each cell
+	private int[] fillDiff;
+	// clueSum[i]: total of clues [0, i), bounding where each block can go
+	private int[] clueSum;
+
+	/**
+	 * Creates a line solver with scratch space for lines of
+	 * up to the given length (it grows if needed).
+	 * @param maxLength The longest line expected.
+	 */
+	public LineSolver(int maxLength) {
+		ensureCapacity(maxLength, (maxLength + 1) / 2);
+	}
+
+	private void ensureCapacity(int length, int clues) {
+		if (filledCount == null || filledCount.length < length + 1) {
+			filledCount = new int[length + 1];
+			blankCount = new int[length + 1];
+			fillDiff = new int[length + 1];
+		}
+		if (clueSum == null || clueSum.length < clues + 1)
+			clueSum = new int[clues + 1];
+		int tableSize = (clues + 1) * (length + 1);
+		if (fwd == null || fwd.length < tableSize) {
+			fwd = new boolean[tableSize];
+			bwd = new boolean[tableSize];
+		}
+	}
+
+	/**
+	 * Deduces whatever can be deduced about a line. Known cells
+	 * in the line are respected, and newly deduced cells are
+	 * written back into the array.
+	 * @param clues The clue list for the line (all positive).
+	 * @param line The cells of the line, using the {@link Solver} cell constants.
+	 * @param length The number of cells in the line.
+	 * @return The number of cells that were deduced, or -1 if
+	 * the known cells contradict the clues.
+	 */
+	public int solve(int[] clues, byte[] line, int length) {
+		int k = clues.length;
+		int n = length;
+		ensureCapacity(n, k);
+		// locals, so the hot loops don't reload fields
+		int[] filledCount = this.filledCount;
+		int[] blankCount = this.blankCount;
+		boolean[] fwd = this.fwd;
+		boolean[] bwd = this.bwd;
+		int[] fillDiff = this.fillDiff;
+		int[] clueSum = this.clueSum;
+		int w = n + 1;
+		for (int i = 0; i < k; i++)
+			clueSum[i + 1] = clueSum[i] + clues[i];
+		// the packed length of all the clues
+		int packed = k == 0 ? 0 : clueSum[k] + k - 1;
+		if (packed > n)
+			return -1;
+		// prefix counts of filled and blank cells
+		for (int j = 0; j < n; j++) {
+			filledCount[j + 1] = filledCount[j] + (line[j] == Solver.FILLED ? 1 : 0);
+			blankCount[j + 1] = blankCount[j] + (line[j] == Solver.BLANK ? 1 : 0);
+		}
+		// a fully known line only needs checking against its clues
+		if (filledCount[n] + blankCount[n] == n)
+			return matchesClues(clues, line, n) ? 0 : -1;
+		// forward table
+		for (int j = 0; j <= n; j++)
+			fwd[j] = filledCount[j] == 0;
+		for (int i = 1; i <= k; i++) {
+			int len = clues[i - 1];
+			int row = i * w;
+			int prev = (i - 1) * w;
+			// clues [0, i) need at least this many cells
+			int lo = clueSum[i] + i - 1;
+			for (int j = 0; j < lo; j++)
+				fwd[row + j] = false;
+			for (int j = Math.max(1, lo); j <= n; j++) {
+				// cell j-1 left blank, or block i-1 ends at cell j-1
+				boolean ok = line[j - 1] != Solver.FILLED && fwd[row + j - 1];
+				int s = j - len;
+				if (!ok && s >= 0 && blankCount[j] == blankCount[s]) {
+					if (i == 1)
+						ok = fwd[s];
+					else
+						ok = s >= 1 && line[s - 1] != Solver.FILLED && fwd[prev + s - 1];
+				}
+				fwd[row + j] = ok;
+			}
+		}
+		// nothing fits: the known cells contradict the clues
+		if (!fwd[k * w + n])
+			return -1;
+		// backward table
+		for (int j = 0; j <= n; j++)
+			bwd[k * w + j] = filledCount[n] == filledCount[j];
+		for (int i = k - 1; i >= 0; i--) {
+			int len = clues[i];
+			int row = i * w;
+			int next = (i + 1) * w;
+			// clues [i, k) need at least this many cells
+			int hi = n - (clueSum[k] - clueSum[i] + k - i - 1);
+			for (int j = n; j > hi; j--)
+				bwd[row + j] = false;
+			for (int j = Math.min(n - 1, hi); j >= 0; j--) {
+				// cell j left blank, or block i starts at cell j
+				boolean ok = line[j] != Solver.FILLED && bwd[row + j + 1];
+				int e = j + len;
+				if (!ok && e <= n && blankCount[e] == blankCount[j]) {
+					if (i == k - 1)
+						ok = bwd[next + e];
+					else
+						ok = e < n && line[e] != Solver.FILLED && bwd[next + e + 1];
+				}
+				bwd[row + j] = ok;
+			}
+		}
+		// which cells can be filled (every valid block placement)
+		for (int j = 0; j <= n; j++)
+			fillDiff[j] = 0;
+		for (int i = 0; i < k; i++) {
+			int len = clues[i];
+			// block i has n - packed cells of slack to move in
+			int first = clueSum[i] + i;
+			for (int s = first; s <= first + n - packed; s++) {
+				int e = s + len;
+				if (blankCount[e] != blankCount[s])
+					continue;
+				boolean left = i == 0 ? fwd[s] : s >= 1 && line[s - 1] != Solver.FILLED && fwd[i * w + s - 1];
+				if (!left)
+					continue;
+				boolean right = i == k - 1 ? bwd[k * w + e]
+						: e < n && line[e] != Solver.FILLED && bwd[(i + 1) * w + e + 1];
+				if (right) {
+					fillDiff[s]++;
+					fillDiff[e]--;
+				}
+			}
+		}
+		// write back forced cells
+		int deduced = 0;
+		int placements = 0;
+		for (int c = 0; c < n; c++) {
+			placements += fillDiff[c];
+			if (line[c] != Solver.UNKNOWN)
+				continue;
+			boolean canFill = placements > 0;
+			// a cell can be blank if some split of the clues around it fits
+			boolean canBlank = false;
+			for (int i = 0; !canBlank && i <= k; i++)
+				canBlank = fwd[i * w + c] && bwd[i * w + c + 1];
+			if (canFill && !canBlank) {
+				line[c] = Solver.FILLED;
+				deduced++;
+			}
+			else if (!canFill && canBlank) {
+				line[c] = Solver.BLANK;
+				deduced++;
+			}
+		}
+		return deduced;
+	}
+
+	/**
+	 * Checks a fully known line against its clues.
+	 */
+	private static boolean matchesClues(int[] clues, byte[] line, int length) {
+		int num = 0;
+		int chain = 0;
+		for (int c = 0; c <= length; c++) {
+			if (c < length && line[c] == Solver.FILLED)
+				chain++;
+			else if (chain != 0) {
+				if (num >= clues.length || clues[num] != chain)
+					return false;
+				num++;
+				chain = 0;
+			}
+		}
+		return num == clues.length;
+	}
+
+}
@@ -0,0 +1,236 @@
+package picnix.solver;
+
+import picnix.Level;
+import picnix.puzzle.PuzzleDefinition;
+
+/**
+ * Rates how hard a puzzle is to solve by logic, by solving
+ * it the way a player would: line by line, then by probing
+ * single cells for contradictions, and only then by guessing.
+ *
+ * The rating grows with the size of the board, how many
+ * propagation passes it takes, how many probing rounds are
+ * needed, and how deep and bushy any guessing has to be.
+ * Ratings fit in a byte, so they can be stored in world files.
+ */
+public class Rater {
+
+	// the hardest technique a puzzle needs
+	public static final int TECHNIQUE_LINE = 0;
+	public static final int TECHNIQUE_PROBE = 1;
+	public static final int TECHNIQUE_GUESS = 2;
+
+	public static final int MAX_RATING = 255;
+
+	private int[][] rowClues;
+	private int[][] colClues;
+	private Solver solver;
+	// the propagated grid a probing round starts from
+	private byte[] base;
+	// cells forced by the current probing round, and their states
+	private int[] forcedCells;
+	private byte[] forcedStates;
+
+	// results of the last rating
+	private int rating;
+	private int technique;
+	private int depth;
+	private int probeRounds;
+	private int guesses;
+	private int searchDepth;
+	private double branching;
+
+	/**
+	 * Creates a rater for the given clue lists.
+	 * @param rowClues The clue list for each row.
+	 * @param colClues The clue list for each column.
+	 */
+	public Rater(int[][] rowClues, int[][] colClues) {
+		solver = new Solver(rowClues, colClues);
+		this.rowClues = rowClues;
+		this.colClues = colClues;
+		int cells = rowClues.length * colClues.length;
+		base = new byte[cells];
+		forcedCells = new int[cells];
+		forcedStates = new byte[cells];
+	}
+
+	/**
+	 * Creates a rater for the clues of the given puzzle.
+	 * @param puzzle The puzzle to rate.
+	 */
+	public Rater(PuzzleDefinition puzzle) {
+		this(clueRows(puzzle), clueColumns(puzzle));
+	}
+
+	private static int[][] clueRows(PuzzleDefinition puzzle) {
+		int[][] clues = new int[puzzle.getRows()][];
+		for (int r = 0; r < clues.length; r++)
+			clues[r] = puzzle.getClueRow(r);
+		return clues;
+	}
+
+	private static int[][] clueColumns(PuzzleDefinition puzzle) {
+		int[][] clues = new int[puzzle.getColumns()][];
+		for (int c = 0; c < clues.length; c++)
+			clues[c] = puzzle.getClueColumn(c);
+		return clues;
+	}
+
+	/**
+	 * Solves the puzzle from scratch and rates it.
+	 * @return The rating, from 0 to MAX_RATING.
+	 */
+	public int rate() {
+		technique = TECHNIQUE_LINE;
+		depth = 0;
+		probeRounds = 0;
+		guesses = 0;
+		searchDepth = 0;
+		branching = 1;
+		solver.reset();
+		int result = solver.solve();
+		depth += solver.getPasses();
+		// line solving stalled - probe for contradictions
+		while (result == Solver.STALLED && probe() > 0) {
+			technique = TECHNIQUE_PROBE;
+			probeRounds++;
+			result = solver.solve();
+			depth += solver.getPasses();
+		}
+		// probing stalled too - only guessing is left
+		if (result == Solver.STALLED) {
+			technique = TECHNIQUE_GUESS;
+			UniquenessChecker checker = new UniquenessChecker(rowClues, colClues);
+			checker.check();
+			guesses = checker.getGuesses();
+			searchDepth = checker.getMaxDepth();
+			// the branching factor that would grow a search tree of
+			// this many nodes to this depth
+			if (searchDepth > 0)
+				branching = Math.pow(2.0 * guesses + 1, 1.0 / searchDepth);
+		}
+		int cells = solver.getRows() * solver.getColumns();
+		double score = cells / 20.0 + depth + 4 * probeRounds;
+		if (technique == TECHNIQUE_GUESS)
+			score += 20 + 5 * searchDepth * branching;
+		rating = (int) Math.min(MAX_RATING, Math.round(score));
+		return rating;
+	}
+
+	/**
+	 * Tries each unknown cell both ways; if one way leads to a
+	 * contradiction by line solving, the cell must be the other.
+	 * The forced cells are set (and queued) on the solver.
+	 * @return The number of cells forced.
+	 */
+	private int probe() {
+		int columns = solver.getColumns();
+		int forced = 0;
+		solver.save(base);
+		for (int i = 0; i < base.length; i++) {
+			if (base[i] != Solver.UNKNOWN)
+				continue;
+			int row = i / columns;
+			int col = i % columns;
+			solver.setCell(row, col, Solver.FILLED);
+			boolean canFill = solver.solve() != Solver.CONTRADICTION;
+			solver.restore(base);
+			solver.setCell(row, col, Solver.BLANK);
+			boolean canBlank = solver.solve() != Solver.CONTRADICTION;
+			solver.restore(base);
+			if (canFill != canBlank) {
+				forcedCells[forced] = i;
+				forcedStates[forced] = canFill ? Solver.FILLED : Solver.BLANK;
+				forced++;
+			}
+		}
+		for (int f = 0; f < forced; f++)
+			solver.setCell(forcedCells[f] / columns, forcedCells[f] % columns, forcedStates[f]);
+		return forced;
+	}
+
+	public int getRating() {
+		return rating;
+	}
+
+	/**
+	 * @return The hardest technique the last rating needed,
+	 * one of the TECHNIQUE constants.
+	 */
+	public int getTechnique() {
+		return technique;
+	}
+
+	/**
+	 * @return The total propagation passes, over line solving
+	 * and every probing round.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	public int getProbeRounds() {
+		return probeRounds;
+	}
+
+	/**
+	 * @return Whether the last rating had to guess and backtrack.
+	 */
+	public boolean needsGuessing() {
+		return technique == TECHNIQUE_GUESS;
+	}
+
+	public int getGuesses() {
+		return guesses;
+	}
+
+	public int getSearchDepth() {
+		return searchDepth;
+	}
+
+	/**
+	 * @return The effective branching factor of the guessing
+	 * search, or 1 if there was no guessing.
+	 */
+	public double getBranching() {
+		return branching;
+	}
+
+	/**
+	 * Returns a readable name for a technique.
+	 * @param technique One of the TECHNIQUE constants.
+	 * @return The technique's name.
+	 */
+	public static String getTechniqueName(int technique) {
+		switch (technique) {
+		case TECHNIQUE_LINE:
+			return "line";
+		case TECHNIQUE_PROBE:
+			return "probe";
+		}
+		return "guess";
+	}
+
+	/**
+	 * Works out how long a player gets to solve a puzzle layer.
+	 * @param rating The layer's rating.
+	 * @param rows The layer's row count.
+	 * @param cols The layer's column count.
+	 * @return The time limit, in seconds.
+	 */
+	public static int getTimeLimit(int rating, int rows, int cols) {
+		// a minute per (square) side, and another for every two points
+		return 60 * ((int) Math.ceil(Math.sqrt(rows * cols)) + (rating + 1) / 2);
+	}
+
+	/**
+	 * Works out how many mistakes a player may make on a level.
+	 * @param rating The level's (hardest layer's) rating.
+	 * @return The mistake cap, from Level.MIN_MISTAKES to Level.MAX_MISTAKES.
+	 */
+	public static int getMistakeCap(int rating) {
+		return Math.max(Level.MIN_MISTAKES, Math.min(Level.MAX_MISTAKES, 3 + rating / 20));
+	}
+
+}
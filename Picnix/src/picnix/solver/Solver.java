@@ -0,0 +1,304 @@
+package picnix.solver;
+
+import picnix.puzzle.PuzzleDefinition;
+
+/**
+ * A headless puzzle solver that works only from the row
+ * and column clues, by repeatedly solving single lines.
+ *
+ * Lines waiting to be solved are kept in a work queue; a
+ * line is queued again only when one of its cells is deduced
+ * while solving a crossing line, so quiet lines cost nothing.
+ */
+public class Solver {
+
+	// cell states
+	public static final byte UNKNOWN = 0;
+	public static final byte FILLED = 1;
+	public static final byte BLANK = 2;
+
+	// results of solving
+	public static final int SOLVED = 0;
+	public static final int STALLED = 1;
+	public static final int CONTRADICTION = 2;
+
+	private int rows;
+	private int columns;
+
+	// clue lists for rows and columns (always positive)
+	private int[][] rowClues;
+	private int[][] colClues;
+
+	// the grid of cell states, row-major
+	private byte[] grid;
+	private int unknownCells;
+
+	// the single line solver and the line buffer handed to it
+	private LineSolver lineSolver;
+	private byte[] line;
+
+	// ring buffer of dirty lines; rows are 0..rows-1, columns follow
+	private int[] queue;
+	private boolean[] queued;
+	private int queueHead;
+	private int queueSize;
+
+	// stats from the last call to solve
+	private int passes;
+	private int lineSolves;
+	private int deduced;
+	private long solveNanos;
+
+	/**
+	 * Creates a solver for the given clue lists, with every
+	 * cell unknown and every line queued.
+	 * @param rowClues The clue list for each row.
+	 * @param colClues The clue list for each column.
+	 */
+	public Solver(int[][] rowClues, int[][] colClues) {
+		rows = rowClues.length;
+		columns = colClues.length;
+		// copy clues, since a Puzzle crosses clues by negating them
+		this.rowClues = copyClues(rowClues);
+		this.colClues = copyClues(colClues);
+		grid = new byte[rows * columns];
+		lineSolver = new LineSolver(Math.max(rows, columns));
+		line = new byte[Math.max(rows, columns)];
+		queue = new int[rows + columns];
+		queued = new boolean[rows + columns];
+		reset();
+	}
+
+	/**
+	 * Creates a solver for the clues of the given puzzle.
+	 * @param puzzle The puzzle whose clues to solve.
+	 */
+	public Solver(PuzzleDefinition puzzle) {
+		this(getClues(puzzle, true), getClues(puzzle, false));
+	}
+
+	private static int[][] getClues(PuzzleDefinition puzzle, boolean rowMode) {
+		int count = rowMode ? puzzle.getRows() : puzzle.getColumns();
+		int[][] clues = new int[count][];
+		for (int i = 0; i < count; i++)
+			clues[i] = rowMode ? puzzle.getClueRow(i) : puzzle.getClueColumn(i);
+		return clues;
+	}
+
+	private static int[][] copyClues(int[][] clues) {
+		int[][] copy = new int[clues.length][];
+		for (int i = 0; i < clues.length; i++) {
+			copy[i] = new int[clues[i].length];
+			for (int j = 0; j < clues[i].length; j++)
+				copy[i][j] = Math.abs(clues[i][j]);
+		}
+		return copy;
+	}
+
+	/**
+	 * Clears the grid back to all unknown cells and
+	 * queues every line.
+	 */
+	public void reset() {
+		for (int i = 0; i < grid.length; i++)
+			grid[i] = UNKNOWN;
+		unknownCells = grid.length;
+		clearQueue();
+		for (int i = 0; i < rows + columns; i++)
+			enqueue(i);
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public int[] getClueRow(int row) {
+		return rowClues[row];
+	}
+
+	public int[] getClueColumn(int col) {
+		return colClues[col];
+	}
+
+	public byte getCell(int row, int col) {
+		return grid[row * columns + col];
+	}
+
+	/**
+	 * Sets a cell to a known state (e.g. a guess) and queues
+	 * its row and column so the next solve picks it up.
+	 * @param row The row of the cell.
+	 * @param col The column of the cell.
+	 * @param state FILLED or BLANK.
+	 */
+	public void setCell(int row, int col, byte state) {
+		int i = row * columns + col;
+		if (grid[i] == UNKNOWN)
+			unknownCells--;
+		grid[i] = state;
+		enqueue(row);
+		enqueue(rows + col);
+	}
+
+	public int getUnknownCells() {
+		return unknownCells;
+	}
+
+	public boolean isSolved() {
+		return unknownCells == 0;
+	}
+
+	/**
+	 * Copies the grid into the given array, so it can be
+	 * restored later with {@link #restore(byte[])}.
+	 * @param into An array of at least rows * columns cells.
+	 */
+	public void save(byte[] into) {
+		System.arraycopy(grid, 0, into, 0, grid.length);
+	}
+
+	/**
+	 * Restores a grid copied out by {@link #save(byte[])}.
+	 * The work queue is emptied, since the saved grid is
+	 * assumed to already be propagated.
+	 * @param from The saved grid.
+	 */
+	public void restore(byte[] from) {
+		System.arraycopy(from, 0, grid, 0, grid.length);
+		unknownCells = 0;
+		for (int i = 0; i < grid.length; i++)
+			if (grid[i] == UNKNOWN)
+				unknownCells++;
+		clearQueue();
+	}
+
+	/**
+	 * Propagates line deductions until no queued lines remain.
+	 * @return SOLVED if every cell is known, STALLED if line solving
+	 * alone got stuck, or CONTRADICTION if the clues (and any set cells)
+	 * cannot be satisfied.
+	 */
+	public int solve() {
+		long start = System.nanoTime();
+		passes = 0;
+		lineSolves = 0;
+		deduced = 0;
+		int result = propagate();
+		solveNanos = System.nanoTime() - start;
+		return result;
+	}
+
+	private int propagate() {
+		// lines left in the current pass
+		int remaining = 0;
+		while (queueSize > 0) {
+			// a pass is one sweep over the lines that were dirty when it began
+			if (remaining == 0) {
+				passes++;
+				remaining = queueSize;
+			}
+			int lineId = dequeue();
+			remaining--;
+			if (!solveLine(lineId)) {
+				clearQueue();
+				return CONTRADICTION;
+			}
+		}
+		return unknownCells == 0 ? SOLVED : STALLED;
+	}
+
+	private boolean solveLine(int lineId) {
+		boolean rowMode = lineId < rows;
+		int pos = rowMode ? lineId : lineId - rows;
+		int length = rowMode ? columns : rows;
+		int start = rowMode ? pos * columns : pos;
+		int step = rowMode ? 1 : columns;
+		for (int i = 0, g = start; i < length; i++, g += step)
+			line[i] = grid[g];
+		lineSolves++;
+		int found = lineSolver.solve(rowMode ? rowClues[pos] : colClues[pos], line, length);
+		if (found < 0)
+			return false;
+		if (found == 0)
+			return true;
+		// copy back new cells, dirtying each crossing line
+		for (int i = 0, g = start; i < length; i++, g += step) {
+			if (grid[g] == line[i])
+				continue;
+			grid[g] = line[i];
+			unknownCells--;
+			deduced++;
+			enqueue(rowMode ? rows + i : i);
+		}
+		return true;
+	}
+
+	private void enqueue(int lineId) {
+		if (queued[lineId])
+			return;
+		queued[lineId] = true;
+		queue[(queueHead + queueSize) % queue.length] = lineId;
+		queueSize++;
+	}
+
+	private int dequeue() {
+		int lineId = queue[queueHead];
+		queueHead = (queueHead + 1) % queue.length;
+		queueSize--;
+		queued[lineId] = false;
+		return lineId;
+	}
+
+	private void clearQueue() {
+		for (int i = 0; i < queued.length; i++)
+			queued[i] = false;
+		queueHead = 0;
+		queueSize = 0;
+	}
+
+	/**
+	 * @return The number of propagation passes in the last solve.
+	 */
+	public int getPasses() {
+		return passes;
+	}
+
+	/**
+	 * @return The number of single line solves in the last solve.
+	 */
+	public int getLineSolves() {
+		return lineSolves;
+	}
+
+	/**
+	 * @return The number of cells deduced in the last solve.
+	 */
+	public int getDeducedCells() {
+		return deduced;
+	}
+
+	/**
+	 * @return How long the last solve took, in nanoseconds.
+	 */
+	public long getSolveNanos() {
+		return solveNanos;
+	}
+
+	/**
+	 * Returns whether the (fully known) grid is filled at a cell,
+	 * as a boolean grid like the ones Puzzles are built from.
+	 * @return The solved grid, with unknown cells as false.
+	 */
+	public boolean[][] toGrid() {
+		boolean[][] sol = new boolean[rows][columns];
+		for (int r = 0; r < rows; r++)
+			for (int c = 0; c < columns; c++)
+				sol[r][c] = grid[r * columns + c] == FILLED;
+		return sol;
+	}
+
+}
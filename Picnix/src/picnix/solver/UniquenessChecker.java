@@ -0,0 +1,235 @@
+package picnix.solver;
+
+import picnix.puzzle.PuzzleDefinition;
+
+/**
+ * Checks whether a puzzle's clues have exactly one solution.
+ *
+ * Line propagation does most of the work; when it stalls, the
+ * checker guesses a cell and backtracks, stopping as soon as a
+ * second solution turns up. The number of guesses is bounded,
+ * so a pathological puzzle can't hang a content build.
+ */
+public class UniquenessChecker {
+
+	// check results
+	public static final int UNIQUE = 0;
+	public static final int MULTIPLE = 1;
+	public static final int UNSOLVABLE = 2;
+	// the guess limit was hit before an answer was found
+	public static final int UNDECIDED = 3;
+
+	public static final int DEFAULT_MAX_GUESSES = 100_000;
+
+	private Solver solver;
+	// the intended solution, if known (used to pick a counter-example)
+	private boolean[][] intended;
+	private int maxGuesses = DEFAULT_MAX_GUESSES;
+
+	// saved grids for each backtracking depth
+	private byte[][] saves;
+
+	// search state and results
+	private int found;
+	private boolean[][] first;
+	private boolean[][] second;
+	private int guesses;
+	private int maxDepth;
+	private int passes;
+	private boolean outOfGuesses;
+	private long checkNanos;
+
+	/**
+	 * Creates a checker for the given clue lists.
+	 * @param rowClues The clue list for each row.
+	 * @param colClues The clue list for each column.
+	 */
+	public UniquenessChecker(int[][] rowClues, int[][] colClues) {
+		solver = new Solver(rowClues, colClues);
+		saves = new byte[0][];
+	}
+
+	/**
+	 * Creates a checker for the clues of the given puzzle,
+	 * which also knows the puzzle's intended solution.
+	 * @param puzzle The puzzle to check.
+	 */
+	public UniquenessChecker(PuzzleDefinition puzzle) {
+		solver = new Solver(puzzle);
+		saves = new byte[0][];
+		intended = new boolean[puzzle.getRows()][puzzle.getColumns()];
+		for (int r = 0; r < puzzle.getRows(); r++)
+			for (int c = 0; c < puzzle.getColumns(); c++)
+				intended[r][c] = puzzle.isFilledInSolution(r, c);
+	}
+
+	/**
+	 * Sets the most guesses a check may make before giving up.
+	 * @param maxGuesses The guess limit.
+	 */
+	public void setMaxGuesses(int maxGuesses) {
+		this.maxGuesses = maxGuesses;
+	}
+
+	/**
+	 * Runs the check.
+	 * @return UNIQUE, MULTIPLE, UNSOLVABLE, or UNDECIDED if
+	 * the guess limit ran out first.
+	 */
+	public int check() {
+		long start = System.nanoTime();
+		found = 0;
+		first = null;
+		second = null;
+		guesses = 0;
+		maxDepth = 0;
+		passes = 0;
+		outOfGuesses = false;
+		solver.reset();
+		search(0);
+		checkNanos = System.nanoTime() - start;
+		if (found >= 2)
+			return MULTIPLE;
+		if (outOfGuesses)
+			return UNDECIDED;
+		return found == 1 ? UNIQUE : UNSOLVABLE;
+	}
+
+	private void search(int depth) {
+		maxDepth = Math.max(maxDepth, depth);
+		int result = solver.solve();
+		passes += solver.getPasses();
+		if (result == Solver.CONTRADICTION)
+			return;
+		if (result == Solver.SOLVED) {
+			found++;
+			if (found == 1)
+				first = solver.toGrid();
+			else
+				second = solver.toGrid();
+			return;
+		}
+		if (guesses >= maxGuesses) {
+			outOfGuesses = true;
+			return;
+		}
+		// stalled - guess a cell, trying both states
+		int cell = pickGuess();
+		int row = cell / solver.getColumns();
+		int col = cell % solver.getColumns();
+		byte[] save = getSave(depth);
+		solver.save(save);
+		guesses++;
+		solver.setCell(row, col, Solver.FILLED);
+		search(depth + 1);
+		if (found >= 2 || outOfGuesses)
+			return;
+		solver.restore(save);
+		solver.setCell(row, col, Solver.BLANK);
+		search(depth + 1);
+	}
+
+	/**
+	 * Picks an unknown cell in the row with the fewest unknown cells,
+	 * since a guess there is most likely to finish the line.
+	 * @return The cell index (row * columns + col).
+	 */
+	private int pickGuess() {
+		int best = -1;
+		int bestUnknowns = Integer.MAX_VALUE;
+		for (int r = 0; r < solver.getRows(); r++) {
+			int unknowns = 0;
+			int firstUnknown = -1;
+			for (int c = 0; c < solver.getColumns(); c++) {
+				if (solver.getCell(r, c) == Solver.UNKNOWN) {
+					if (unknowns == 0)
+						firstUnknown = c;
+					unknowns++;
+				}
+			}
+			if (unknowns > 0 && unknowns < bestUnknowns) {
+				bestUnknowns = unknowns;
+				best = r * solver.getColumns() + firstUnknown;
+			}
+		}
+		return best;
+	}
+
+	private byte[] getSave(int depth) {
+		if (depth >= saves.length) {
+			byte[][] grown = new byte[Math.max(8, saves.length * 2)][];
+			System.arraycopy(saves, 0, grown, 0, saves.length);
+			saves = grown;
+		}
+		if (saves[depth] == null)
+			saves[depth] = new byte[solver.getRows() * solver.getColumns()];
+		return saves[depth];
+	}
+
+	/**
+	 * @return The first solution found by the last check, or null.
+	 */
+	public boolean[][] getSolution() {
+		return first;
+	}
+
+	/**
+	 * Returns a second solution, proving the puzzle is ambiguous.
+	 * If the intended solution is known, the returned grid is one
+	 * that differs from it.
+	 * @return A solution other than the intended one, or null if
+	 * the last check didn't find multiple solutions.
+	 */
+	public boolean[][] getCounterExample() {
+		if (second == null)
+			return null;
+		if (intended != null && sameGrid(second, intended))
+			return first;
+		return second;
+	}
+
+	private static boolean sameGrid(boolean[][] a, boolean[][] b) {
+		for (int r = 0; r < a.length; r++)
+			for (int c = 0; c < a[r].length; c++)
+				if (a[r][c] != b[r][c])
+					return false;
+		return true;
+	}
+
+	public int getGuesses() {
+		return guesses;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @return The total propagation passes over every search node.
+	 */
+	public int getPasses() {
+		return passes;
+	}
+
+	public long getCheckNanos() {
+		return checkNanos;
+	}
+
+	/**
+	 * Returns a readable name for a check result.
+	 * @param result One of the result constants.
+	 * @return The result's name.
+	 */
+	public static String getResultName(int result) {
+		switch (result) {
+		case UNIQUE:
+			return "unique";
+		case MULTIPLE:
+			return "multiple";
+		case UNSOLVABLE:
+			return "unsolvable";
+		}
+		return "undecided";
+	}
+
+}
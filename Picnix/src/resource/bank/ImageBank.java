@@ -293,7 +293,28 @@ public class ImageBank {
 	}
 	
 	public static void loadWorldResources(int worldId) throws IOException {
-		BufferedImage backSheet = loadSheet("grasstest.png");
+		setWorldResources(worldId, readWorldSheet(worldId));
+	}
+	
+	/**
+	 * @return The name of a world's background sheet.
+	 */
+	public static String getWorldSheetName(int worldId) {
+		return "grasstest.png";
+	}
+	
+	/**
+	 * Reads a world's background sheet, without keeping it.
+	 * Safe to call from any thread.
+	 */
+	public static BufferedImage readWorldSheet(int worldId) throws IOException {
+		return loadSheet(getWorldSheetName(worldId));
+	}
+	
+	/**
+	 * Makes a world's resources from its (already read) background sheet.
+	 */
+	public static void setWorldResources(int worldId, BufferedImage backSheet) {
 		backgrounds[worldId] = backSheet;
 		tiledBackgrounds[worldId] = loadMany(backSheet, 0, 0, 100, 45, 10, 15); 
 	}
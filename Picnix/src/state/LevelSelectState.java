@@ -12,6 +12,7 @@ import state.element.BackButton;
 import state.element.LevelButton;
 import state.element.TiledButton;
 import state.load.LoadPuzzleState;
+import state.load.Prefetcher;
 
 public class LevelSelectState extends ScrollableState {
 	
@@ -45,7 +46,10 @@ public class LevelSelectState extends ScrollableState {
 	public void focus(int status) {
 		//if (status == NEWLY_OPENED)
 		updateUnlockedLevels();
-		slideTo(getFirstUnclearedLevel());
+		int next = getFirstUnclearedLevel(world);
+		slideTo(next);
+		// it's the likeliest to be played next
+		Prefetcher.prefetchLevel(world, next);
 	}
 
 	private void updateUnlockedLevels() {
@@ -58,7 +62,11 @@ public class LevelSelectState extends ScrollableState {
 		}
 	}
 	
-	private int getFirstUnclearedLevel() {
+	/**
+	 * @return The first level of a world not yet cleared,
+	 * or the last level if they all are.
+	 */
+	public static int getFirstUnclearedLevel(World world) {
 		int i;
 		for (i = 0; i < world.getLevelCount(); i++)
 			if (!UserData.isPuzzleCleared(world.getId(), i))
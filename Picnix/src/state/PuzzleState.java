@@ -5,7 +5,13 @@ import java.awt.Color;
 import java.awt.Composite;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.event.KeyEvent;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 
 import engine.Engine;
@@ -13,6 +19,8 @@ import engine.Input;
 import engine.Transition;
 import picnix.Level;
 import picnix.World;
+import picnix.data.Snapshot;
+import picnix.data.SolveTrace;
 import picnix.data.UserData;
 import picnix.interactable.Mushroom;
 import picnix.interactable.Organism;
@@ -20,6 +28,9 @@ import picnix.puzzle.Blanket;
 import picnix.puzzle.Field;
 import picnix.puzzle.Puzzle;
 import picnix.puzzle.Stroke;
+import picnix.puzzle.UndoLog;
+import picnix.solver.Hint;
+import picnix.solver.HintEngine;
 import resource.bank.AudioBank;
 import resource.bank.FontBank;
 import resource.bank.ImageBank;
@@ -90,8 +101,16 @@ public class PuzzleState extends State {
 	// layer id of the active puzzle
 	private int activeLayerId;
 	
+	// finds forced cells for hints, one per puzzle layer
+	private HintEngine[] hintEngines;
+	// the hint shown while the hint key is held, or null
+	private Hint shownHint;
+	private static final int HINT_KEY = KeyEvent.VK_H;
+	
 	// clock for hwo long the puzzle has been running
 	private Timer clock; 
+	// every mark change, saved when the puzzle is left
+	private SolveTrace trace;
 	private int timeSecLimit;
 	// score constants
 	public static final int PLATE_SCORE = 1000;
@@ -127,10 +146,14 @@ public class PuzzleState extends State {
 	// for smooth tool arrow movement
 	private Animation toolArrowAnim;
 
-	// dynamic sequences of Strokes, used to undo/redo draws
-	private static final int MAX_UNDO_HISTORY = Stroke.STROKE_BANK_SIZE;
-	private ArrayList<Stroke> undo;
-	private ArrayList<Stroke> redo;
+	// logs of Strokes, used to undo/redo draws
+	private static final int UNDO_MEMORY_BUDGET = 1 << 20;
+	private UndoLog undo;
+	private UndoLog redo;
+	// reused strokes for clears and undo/redo
+	private Stroke clearStroke;
+	private Stroke revertStroke;
+	private Stroke savedStroke;
 
 	// array of LayerButtons and progress bars for each layer
 	private static final int NUM_LAYERS = 3;
@@ -173,22 +196,30 @@ public class PuzzleState extends State {
 		clock = new Timer(false);
 		timeSecLimit = level.getTimeLimit();
 		mistakeCap = level.getMistakeCap();
-		puzzleLayers = level.getPuzzles();
+		puzzleLayers = level.newAttempt();
 		activeLayerId = layered ? MAGENTA : NO_LAYER;
 		activePuzzle = puzzleLayers[Math.max(0, activeLayerId)];
+		hintEngines = new HintEngine[puzzleLayers.length];
+		for (int i = 0; i < puzzleLayers.length; i++)
+			hintEngines[i] = new HintEngine(puzzleLayers[i]);
+		trace = new SolveTrace(world.getId(), level.getId(), activePuzzle.getRows(), activePuzzle.getColumns());
 		int msize = Math.max(activePuzzle.getRows(), activePuzzle.getColumns());
+		// boards past 20 use the smallest cells, and the field scrolls
 		cellSize =  msize <= 5 ? CELL_SIZE_5x5 :
 			msize <= 10 ? CELL_SIZE_10x10 :
-			msize <= 15 ? CELL_SIZE_15x15 :
-			/*msize>15?*/ CELL_SIZE_15x15;
+			msize <= 20 ? CELL_SIZE_15x15 :
+			/*msize>20?*/ CELL_SIZE_20x20;
 		field = new Field(this, world.getId());
 		add(field);
 		// scoreAnim duration will be set dynamically, proportional to score increase
 		scoreAnim = new Animation(0, 0, 0, Animation.LINEAR, Animation.NO_LOOP, false);
 		toolArrowAnim = new Animation(100, Animation.EASE_OUT, Animation.NO_LOOP);
 		toolClicked(ToolButton.PLATE);
-		undo = new ArrayList<Stroke>();
-		redo = new ArrayList<Stroke>();
+		undo = new UndoLog(UNDO_MEMORY_BUDGET);
+		redo = new UndoLog(UNDO_MEMORY_BUDGET);
+		clearStroke = new Stroke();
+		revertStroke = new Stroke();
+		savedStroke = new Stroke();
 		textDrop = new MultiAnimation(new double[] {-150, 142, 85, 142, 135, 142},
 				new int[] {500, 200, 200, 75, 75, 0},
 				new double[][] {MultiAnimation.EASE_IN, MultiAnimation.EASE_OUT, MultiAnimation.EASE_IN,
@@ -202,8 +233,8 @@ public class PuzzleState extends State {
 			Mushroom m = new Mushroom();
 			int rx, ry;
 			do {
-				rx = (int) (Math.random() * Field.FIELD_WIDTH);
-				ry = (int) (Math.random() * Field.FIELD_HEIGHT);
+				rx = (int) (Math.random() * field.getFieldWidth());
+				ry = (int) (Math.random() * field.getFieldHeight());
 			} while (field.getBlanket().inAbsoluteBounds(rx, ry) ||
 					field.getBlanket().inAbsoluteBounds(rx + 20, ry + 20));
 			m.setBounds(rx, ry, 20, 20);
@@ -223,14 +254,138 @@ public class PuzzleState extends State {
 			clock.resume();
 	}
 	
+	@Override
+	public void close() {
+		// leaving part way through - keep the progress for next time
+		if (state == PICTURE_SOLVING)
+			saveSnapshot();
+		trace.close();
+	}
+	
+	/* ~~~~~~~~~~~~~~~~~~~~
+	 * 	SNAPSHOTS
+	 * ~~~~~~~~~~~~~~~~~~~~
+	 */
+	
+	/**
+	 * Saves this attempt's progress in the background: the marks
+	 * on every layer, the clock, score, mistakes, and undo history.
+	 */
+	private void saveSnapshot() {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bos);
+		try {
+			dos.write(Snapshot.VERSION);
+			dos.write(activePuzzle.getRows());
+			dos.write(activePuzzle.getColumns());
+			dos.write(puzzleLayers.length);
+			dos.write(activeLayerId + 1);
+			dos.writeBoolean(guessing);
+			dos.writeLong(clock.elapsed());
+			dos.writeInt(plateScore);
+			dos.writeInt(critterScore);
+			dos.writeInt(mistakeCount);
+			for (int i = 0; i < puzzleLayers.length; i++)
+				Snapshot.writeMarks(dos, puzzleLayers[i]);
+			Snapshot.writeBits(dos, field.getBlanket().getScoreChart());
+			undo.write(dos);
+			redo.write(dos);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		Snapshot.save(world.getId(), level.getId(), bos.toByteArray());
+	}
+	
+	/**
+	 * Picks up an attempt from a snapshot saved by an earlier one.
+	 * Call before the state is opened.
+	 * @param data The snapshot.
+	 * @return False if the snapshot doesn't fit this level, or is damaged;
+	 * nothing is restored then.
+	 */
+	public boolean restoreSnapshot(byte[] data) {
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		int rows = activePuzzle.getRows();
+		int cols = activePuzzle.getColumns();
+		// everything is read and checked before any of it is used,
+		// so a damaged snapshot leaves the attempt as it was
+		int savedLayerId;
+		boolean savedGuessing;
+		long savedElapsed;
+		int savedPlateScore, savedCritterScore, savedMistakes;
+		byte[][] savedMarks = new byte[puzzleLayers.length][];
+		boolean[][] savedChart = new boolean[rows][cols];
+		UndoLog savedUndo = new UndoLog(UNDO_MEMORY_BUDGET);
+		UndoLog savedRedo = new UndoLog(UNDO_MEMORY_BUDGET);
+		try {
+			if (dis.read() != Snapshot.VERSION || dis.read() != rows ||
+					dis.read() != cols || dis.read() != puzzleLayers.length)
+				return false;
+			savedLayerId = dis.read() - 1;
+			savedGuessing = dis.readBoolean();
+			savedElapsed = dis.readLong();
+			savedPlateScore = dis.readInt();
+			savedCritterScore = dis.readInt();
+			savedMistakes = dis.readInt();
+			if ((layered && (savedLayerId < 0 || savedLayerId >= puzzleLayers.length)) || savedElapsed < 0
+					|| savedPlateScore < 0 || savedCritterScore < 0 || savedMistakes < 0)
+				throw new IOException("snapshot values out of range");
+			for (int i = 0; i < puzzleLayers.length; i++)
+				savedMarks[i] = Snapshot.readMarks(dis, rows, cols);
+			Snapshot.readBits(dis, savedChart);
+			savedUndo.read(dis, rows, cols, puzzleLayers.length);
+			savedRedo.read(dis, rows, cols, puzzleLayers.length);
+			if (dis.available() != 0)
+				throw new IOException("unexpected data after the snapshot");
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		// it all fits, so pick up from it
+		clock.setElapsed(savedElapsed);
+		plateScore = savedPlateScore;
+		critterScore = savedCritterScore;
+		mistakeCount = savedMistakes;
+		for (int i = 0; i < puzzleLayers.length; i++)
+			Snapshot.applyMarks(savedMarks[i], puzzleLayers[i]);
+		boolean[][] chart = field.getBlanket().getScoreChart();
+		for (int r = 0; r < rows; r++)
+			System.arraycopy(savedChart[r], 0, chart[r], 0, cols);
+		undo = savedUndo;
+		redo = savedRedo;
+		if (layered)
+			layerClicked(savedLayerId);
+		if (savedGuessing != guessing)
+			toggleGuess();
+		scoreAnim.setFrom(getScore());
+		scoreAnim.setTo(getScore());
+		// the trace carries on from the restored marks
+		trace.reserve(puzzleLayers.length * activePuzzle.getRows() * activePuzzle.getColumns());
+		for (int i = 0; i < puzzleLayers.length; i++)
+			for (int r = 0; r < puzzleLayers[i].getRows(); r++)
+				for (int c = 0; c < puzzleLayers[i].getColumns(); c++)
+					if (puzzleLayers[i].getMark(r, c) != Puzzle.EMPTY)
+						recordMark(r, c, puzzleLayers[i].getMark(r, c), layered ? i : NO_LAYER);
+		updatePlateEnabled();
+		updateClearEnabled();
+		updateUndoRedoEnabled();
+		updateMusicTracks();
+		return true;
+	}
+	
 	/**
 	 * Creates the toolbar and tools, layerbar and layers
 	 * (if the game is layered), and updates enable status
 	 * of the undo/redo, clear, and center buttons.
 	 */
 	private void generateUI() {
-		double ratio = Field.FIELD_WIDTH / (double) Field.FIELD_HEIGHT;
-		minimap = new BufferedImage((int) (MINIMAP_HEIGHT * ratio), MINIMAP_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+		// fit the field into the minimap, no wider than the smallest field's map
+		int maxMapW = MINIMAP_HEIGHT * Field.FIELD_WIDTH / Field.FIELD_HEIGHT;
+		minimapScale = Math.min(MINIMAP_HEIGHT / (double) field.getFieldHeight(),
+				maxMapW / (double) field.getFieldWidth());
+		minimap = new BufferedImage((int) (field.getFieldWidth() * minimapScale),
+				(int) (field.getFieldHeight() * minimapScale), BufferedImage.TYPE_INT_ARGB);
 		pause = new TiledButton(Engine.SCREEN_WIDTH - 24, 0, 24, 32) {
 			@Override
 			public void onButtonUp() {
@@ -347,6 +502,34 @@ public class PuzzleState extends State {
 		return getPuzzleByLayerId(activeLayerId);
 	}
 
+	/**
+	 * Shows the next cell the player's marks force in the active
+	 * puzzle, along with the line that forces it.
+	 */
+	public void showHint() {
+		shownHint = getActiveHintEngine().getHint();
+	}
+	
+	/**
+	 * Shows whether a hovered cell of the active puzzle is forced.
+	 * @param row The hovered row.
+	 * @param col The hovered column.
+	 */
+	public void showHintAt(int row, int col) {
+		shownHint = getActiveHintEngine().getCellHint(row, col);
+	}
+	
+	/**
+	 * @return The hint being shown, or null.
+	 */
+	public Hint getShownHint() {
+		return shownHint;
+	}
+	
+	private HintEngine getActiveHintEngine() {
+		return hintEngines[Math.max(0, activeLayerId)];
+	}
+	
 	public Puzzle getPuzzleByLayerId(int layerId) {
 		if (layerId == NO_LAYER)
 			return activePuzzle;
@@ -432,7 +615,9 @@ public class PuzzleState extends State {
 	}
 
 	private void clearMarks() {
-		Stroke clear = Stroke.newStroke(activeLayerId);
+		Stroke clear = clearStroke;
+		clear.reset(activeLayerId);
+		activePuzzle.beginBatch();
 		for (int r = 0; r < activePuzzle.getRows(); r++) {
 			for (int c = 0; c < activePuzzle.getColumns(); c++) {
 				int oldMark = activePuzzle.getMark(r, c);
@@ -440,21 +625,32 @@ public class PuzzleState extends State {
 					oldMark == Puzzle.MAYBE_FILLED || oldMark == Puzzle.MAYBE_FLAGGED) {
 					clear.addChange(r, c, oldMark, false); // false bc clearing cannot cause mistakes
 					activePuzzle.markSpot(r, c, Puzzle.EMPTY);
+					recordMark(r, c, Puzzle.EMPTY, activeLayerId);
 				}
 			}
 		}
+		activePuzzle.commitBatch();
 		// disable the button
 		tools[ToolButton.CLEAR].setEnabled(false);
 		pushStroke(clear, Puzzle.EMPTY);
 	}
 	
+	/**
+	 * Adds a mark change to the solve trace.
+	 * @param row The row of the cell.
+	 * @param col The column of the cell.
+	 * @param mark The cell's new mark.
+	 * @param layerId The layer of the cell.
+	 */
+	public void recordMark(int row, int col, int mark, int layerId) {
+		trace.record(clock.elapsed(), row, col, mark, layerId);
+	}
+	
 	public void pushStroke(Stroke s, int drawMode) {
 		if (s.isEmpty()) // empty stroke
 			return;
-		undo.add(s);
-		// maintain undo history limit
-		if (undo.size() > MAX_UNDO_HISTORY)
-			undo.remove(0);
+		// the log copies the stroke, dropping the oldest if over budget
+		undo.push(s);
 		// clear redo history
 		redo.clear();
 		updatePlateEnabled();
@@ -481,23 +677,31 @@ public class PuzzleState extends State {
 		doHistory(redo, undo);
 	}
 	
-	public void doHistory(ArrayList<Stroke> from, ArrayList<Stroke> to) {
-		Stroke toRevert = from.remove(from.size() - 1);
+	public void doHistory(UndoLog from, UndoLog to) {
+		if (from.isEmpty())
+			return;
+		Stroke toRevert = revertStroke;
+		from.pop(toRevert);
 		int changedLayer = toRevert.getLayerId();
-		Stroke toSave = Stroke.newStroke(changedLayer);
+		Stroke toSave = savedStroke;
+		toSave.reset(changedLayer);
 		Puzzle revPuzzle = getPuzzleByLayerId(changedLayer);
 		//int mistakesDuringRevert = 0;
+		revPuzzle.beginBatch();
 		for (int i = 0; i < toRevert.size(); i++) {
-			int[] chngd = toRevert.getChange(i);
-			int crow = chngd[Stroke.ROW];
-			int ccol = chngd[Stroke.COL];
+			int chngd = toRevert.getChange(i);
+			int crow = Stroke.getRow(chngd);
+			int ccol = Stroke.getCol(chngd);
+			int cmark = Stroke.getMark(chngd);
 			// mistakes should never be in history since they are immediately fixed
 			toSave.addChange(crow, ccol, revPuzzle.getMark(crow, ccol), false); // <- hence, false
-			revPuzzle.markSpot(crow, ccol, chngd[Stroke.MARK]);
+			revPuzzle.markSpot(crow, ccol, cmark);
+			recordMark(crow, ccol, cmark, changedLayer);
 			//if (mistake)
 			//	mistakesDuringRevert++;
 		}
-		to.add(toSave);
+		revPuzzle.commitBatch();
+		to.push(toSave);
 		updatePlateEnabled();
 		updateClearEnabled();
 		updateUndoRedoEnabled();
@@ -524,17 +728,8 @@ public class PuzzleState extends State {
 	}
 	
 	public void updateClearEnabled() {
-		for (int r = 0; r < activePuzzle.getRows(); r++) {
-			for (int c = 0; c < activePuzzle.getColumns(); c++) {
-				int mark = activePuzzle.getMark(r, c);
-				if (mark != Puzzle.EMPTY && !guessing ||
-					mark == Puzzle.MAYBE_FILLED || mark == Puzzle.MAYBE_FLAGGED) {
-					tools[ToolButton.CLEAR].setEnabled(true);
-					return;
-				}
-			}
-		}
-		tools[ToolButton.CLEAR].setEnabled(false);
+		// guess clear mode only clears guess marks
+		tools[ToolButton.CLEAR].setEnabled(activePuzzle.hasMarks(guessing));
 	}
 
 	public void setCenterEnabled(boolean enabled) {
@@ -543,8 +738,8 @@ public class PuzzleState extends State {
 	
 	public void updateUndoRedoEnabled() {
 		// update whether buttons are enabled
-		tools[ToolButton.UNDO].setEnabled(undo.size() > 0);
-		tools[ToolButton.REDO].setEnabled(redo.size() > 0);
+		tools[ToolButton.UNDO].setEnabled(!undo.isEmpty());
+		tools[ToolButton.REDO].setEnabled(!redo.isEmpty());
 	}
 
 	public void fadeSidebars(boolean fade) {
@@ -690,6 +885,7 @@ public class PuzzleState extends State {
 			popParticle(mr, mc, activePuzzle.getMark(mr, mc));
 			// clear the mistake spot
 			activePuzzle.markSpot(mr, mc, Puzzle.EMPTY);
+			recordMark(mr, mc, Puzzle.EMPTY, activeLayerId);
 			mistakeCount++;
 			if (mistakeCount >= mistakeCap)
 				lose();
@@ -697,6 +893,7 @@ public class PuzzleState extends State {
 	}
 	
 	private void pause() {
+		saveSnapshot();
 		AudioBank.parkMusic.pause();
 		PauseState ps = new PauseState();
 		Engine.getEngine().getStateManager().transitionToState(ps, Transition.SLIDE_TOP, 250, 0);
@@ -704,6 +901,7 @@ public class PuzzleState extends State {
 	
 	private void pictureWin() {
 		state = PICTURE_WINNING;
+		Snapshot.delete(world.getId(), level.getId());
 		scoreLines = new TextField[NUM_SCORE_LINES];
 		clock.pause();
 		disableSidebars();
@@ -713,6 +911,7 @@ public class PuzzleState extends State {
 	
 	private void lose() {
 		state = LOSING;
+		Snapshot.delete(world.getId(), level.getId());
 		finish();
 		// make particles for each cell
 		for (int r = 0; r < activePuzzle.getRows(); r++)
@@ -883,10 +1082,30 @@ public class PuzzleState extends State {
 	
 	@Override
 	public void tick() {
+		// room for this tick's marks (no more than a board's worth),
+		// so they don't grow the trace as they're made
+		trace.reserve(activePuzzle.getRows() * activePuzzle.getColumns());
 		super.tick();
-		// check for time failure
-		if (clock.elapsedSec() > timeSecLimit)
+		// check for time failure (once - the clock keeps running after)
+		if (state == PICTURE_SOLVING && clock.elapsedSec() > timeSecLimit)
 			lose();
+		// hints: hold the hint key to see the next forced cell,
+		// or whether the hovered cell is forced
+		if (state == PICTURE_SOLVING) {
+			Blanket blanket = field.getBlanket();
+			if (Input.getInstance().isPressingKey(HINT_KEY)) {
+				if (activePuzzle.validSpot(blanket.getHoveredRow(), blanket.getHoveredColumn()))
+					showHintAt(blanket.getHoveredRow(), blanket.getHoveredColumn());
+				else
+					showHint();
+			}
+			else
+				shownHint = null;
+			// keep the active layer's hints fresh between requests
+			getActiveHintEngine().update(HintEngine.DEFAULT_BUDGET_NANOS);
+		}
+		else
+			shownHint = null;
 		/* check to go on from this state (after lose/win)
 		   switches after switch time has elapsed, or in the case
 		   of PICTURE_WINNING state, when time is elapsed AND clicking */
@@ -928,6 +1147,8 @@ public class PuzzleState extends State {
 	// ~~~~~~~~~~ RENDER
 
 	BufferedImage minimap;
+	// minimap pixels per field pixel
+	private double minimapScale;
 	
 	@Override
 	public void render(Graphics g) {
@@ -1003,7 +1224,7 @@ public class PuzzleState extends State {
 			// minimap
 			int mapW = minimap.getWidth();
 			int mapH = minimap.getHeight();
-			double scale = minimap.getWidth() / (double) Field.FIELD_WIDTH;
+			double scale = minimapScale;
 			Graphics mapG = minimap.getGraphics();
 			mapG.setColor(Palette.BLACK);
 			mapG.fillRect(0, 0, mapW, mapH);
@@ -39,6 +39,13 @@ public abstract class State {
 	
 	public abstract void focus(int status);
 
+	/**
+	 * Called when the state is popped off the stack, for
+	 * any last work. Does nothing by default.
+	 */
+	public void close() {
+	}
+
 	public void navigateBack() {
 		// default navigate back
 		Engine.getEngine().getStateManager().transitionExitState(Transition.FADE, 250, 0);
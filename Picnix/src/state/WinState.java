@@ -15,13 +15,14 @@ import engine.Transition;
 import picnix.Level;
 import picnix.Parallax;
 import picnix.World;
-import picnix.puzzle.Puzzle;
+import picnix.puzzle.PuzzleDefinition;
 import resource.bank.AudioBank;
 import resource.bank.FontBank;
 import resource.bank.ImageBank;
 import resource.bank.Palette;
 import state.element.Gallery;
 import state.element.TextField;
+import state.load.Prefetcher;
 import util.Animation;
 import util.Timer;
 
@@ -93,14 +94,14 @@ public class WinState extends State {
 	
 	private World world;
 	private Level level;
-	private Puzzle[] puzzles;
+	private PuzzleDefinition[] puzzles;
 	
 	private Parallax background;
 	
 	public WinState(World world, Level level) {
 		this.world = world;
 		this.level = level;
-		puzzles = level.getPuzzles();
+		puzzles = level.getDefinitions();
 		rows = puzzles[0].getRows();
 		cols = puzzles[0].getColumns();
 		width = cols * CELL_SIZE;
@@ -202,6 +203,8 @@ public class WinState extends State {
 	public void focus(int status) {
 		//startFreefall();
 		startSimulation();
+		// while the show plays, get the next level ready
+		Prefetcher.prefetchLevel(world, LevelSelectState.getFirstUnclearedLevel(world));
 	}
 	
 	/*private void startFreefall() {
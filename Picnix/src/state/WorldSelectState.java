@@ -14,6 +14,7 @@ import state.element.BackButton;
 import state.element.TiledButton;
 import state.element.location.LocationBox;
 import state.load.LoadLevelSelectState;
+import state.load.Prefetcher;
 import util.Animation;
 
 public class WorldSelectState extends State {
@@ -87,6 +88,7 @@ public class WorldSelectState extends State {
 		fadeIn.reset(true);
 		// update info for this location
 		locationBox.update(curLoc);
+		prefetchLocation();
 		highLoc = findHighestUnlockedLocation();
 		// disable if no locs are unlocked
 		left.setEnabled(highLoc > 0);
@@ -110,6 +112,15 @@ public class WorldSelectState extends State {
 		Engine.getEngine().getStateManager().transitionToState(lws, Transition.FADE, 500, 0);
 	}
 	
+	/**
+	 * Starts loading the backgrounds of the current location's
+	 * worlds, so opening either of them is quick.
+	 */
+	private void prefetchLocation() {
+		Prefetcher.prefetchWorldSheet(World.getEasyWorldId(curLoc));
+		Prefetcher.prefetchWorldSheet(World.getHardWorldId(curLoc));
+	}
+	
 	public int getBoxY() {
 		return (int) ((1 - smoothBox.getValue()) * -25);
 	}
@@ -121,9 +132,7 @@ public class WorldSelectState extends State {
 	private int findHighestUnlockedLocation() {
 		int i;
 		for (i = 0; i < World.NUM_LOCATIONS; i++) {
-			int easyId = World.getEasyWorldId(i);
-			int compLevs = UserData.getPuzzlesCompleted(easyId);
-			if (compLevs < World.getWorld(easyId).getLevelCount())
+			if (!UserData.isWorldCompleted(World.getEasyWorldId(i)))
 				break;
 		}
 		return i;
@@ -178,6 +187,7 @@ public class WorldSelectState extends State {
 				smoothBox.reverse(true);
 				//UserData.randomizeScores();
 				locationBox.update(curLoc);
+				prefetchLocation();
 			}
 		}
 	}
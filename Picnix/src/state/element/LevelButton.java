@@ -8,6 +8,7 @@ import picnix.data.UserData;
 import resource.bank.ImageBank;
 import resource.bank.Palette;
 import state.LevelSelectState;
+import state.load.Prefetcher;
 
 public class LevelButton extends TiledButton {
 
@@ -58,6 +59,14 @@ public class LevelButton extends TiledButton {
 		return scale;
 	}
 	
+	@Override
+	public void onHover() {
+		super.onHover();
+		// about to be clicked, perhaps
+		if (isEnabled())
+			Prefetcher.prefetchLevel(levState.getWorld(), levelId);
+	}
+	
 	@Override
 	public void onButtonUp() {
 		levState.levelClicked(levelId);
@@ -100,6 +100,10 @@ public class LayerButton extends Button {
 		Graphics g = preview.getGraphics();
 		int nr = toPreview.getRows();
 		int nc = toPreview.getColumns();
+		// on big boards, only every step-th row and column is drawn
+		int step = (int) Math.ceil(Math.max(nr / (double) (PREVIEW_HEIGHT - verticalMargin), nc / (double) PREVIEW_WIDTH));
+		nr /= step;
+		nc /= step;
 		// how big to render each cell in the preview
 		int cellSize = (PREVIEW_HEIGHT - verticalMargin) / nr;
 		int offX = (PREVIEW_WIDTH - cellSize * nc) / 2 + CLICK_SHIFT;
@@ -112,7 +116,7 @@ public class LayerButton extends Button {
 		// loop through each row and column, render colored cell
 		for (int r = 0; r < nr; r++) {
 			for (int c = 0; c < nc; c++) {
-				int mark = toPreview.getMark(r, c);
+				int mark = toPreview.getMark(r * step, c * step);
 				if (mark == Puzzle.FILLED)
 					g.setColor(plateCol); // plate color
 				else if (mark == Puzzle.FLAGGED)
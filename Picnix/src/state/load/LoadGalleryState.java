@@ -2,7 +2,6 @@ package state.load;
 
 import java.io.IOException;
 
-import picnix.data.UserData;
 import resource.bank.ImageBank;
 import state.GalleryState;
 
@@ -26,8 +25,6 @@ public class LoadGalleryState extends LoadState {
 	public void unload() {
 		// unload world resources (background image)
 		ImageBank.unloadGalleryResources();
-		// save what gallery items were seen
-		UserData.save();
 		// next state = null (denotes exit transition)
 		setNextState(null);
 		done();
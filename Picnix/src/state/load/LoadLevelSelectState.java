@@ -16,9 +16,12 @@ public class LoadLevelSelectState extends LoadState {
 	
 	@Override
 	public void load() {
+		// nothing to wait for if the background was prefetched
+		if (Prefetcher.isWorldSheetReady(worldId))
+			setMinWaitTime(0);
 		// load world resources (background image)
 		try {
-			ImageBank.loadWorldResources(worldId);
+			ImageBank.setWorldResources(worldId, Prefetcher.getWorldSheet(worldId));
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -2,7 +2,7 @@ package state.load;
 
 import picnix.Level;
 import picnix.World;
-import picnix.data.UserData;
+import picnix.data.Snapshot;
 import state.PuzzleState;
 
 public class LoadPuzzleState extends LoadState {
@@ -18,16 +18,25 @@ public class LoadPuzzleState extends LoadState {
 	@Override
 	public void load() {
 		World world = World.getWorld(worldId);
-		Level level = world.loadLevel(levelId);
+		// nothing to wait for if the level was prefetched
+		if (Prefetcher.isLevelReady(world, levelId))
+			setMinWaitTime(0);
+		Level level = Prefetcher.getLevel(world, levelId);
 		// when finished loading, open next state (puzzle state)
 		PuzzleState ps = new PuzzleState(world, level);
+		// pick up where the level was left, if it was
+		byte[] snapshot = Snapshot.load(worldId, levelId);
+		if (snapshot != null && !ps.restoreSnapshot(snapshot)) {
+			// it doesn't fit (or is damaged), so start afresh without it
+			Snapshot.delete(worldId, levelId);
+			ps = new PuzzleState(world, level);
+		}
 		setNextState(ps);
 		done();
 	}
 
 	@Override
 	public void unload() {
-		UserData.save();
 		setNextState(null);
 		done();
 	}
@@ -0,0 +1,193 @@
+package state.load;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import picnix.Level;
+import picnix.World;
+import picnix.puzzle.BitGrid;
+import picnix.puzzle.PuzzleDefinition;
+import resource.bank.ImageBank;
+
+/**
+ * Loads what the player is likely to open next on a background thread,
+ * so the load state that opens it has nothing left to do.
+ *
+ * Menus ask for things to be prefetched (a hovered level, the next
+ * uncleared level, a world's background sheet), and load states then
+ * get them from here. Something still waiting its turn is loaded right
+ * away by the load state instead, and something being loaded is waited
+ * for, so nothing is loaded twice. Prefetched things are kept within a
+ * memory budget, dropping the least recently wanted first.
+ */
+public class Prefetcher {
+
+	// the most prefetched data to keep, in bytes
+	private static final long BUDGET_BYTES = 16L << 20;
+
+	private static ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "prefetcher");
+		t.setDaemon(true);
+		// stay out of the game thread's way
+		t.setPriority(Thread.MIN_PRIORITY);
+		return t;
+	});
+
+	private static class Entry {
+		FutureTask<Object> task;
+		// the entry's size, once it's loaded
+		long bytes;
+	}
+
+	// prefetched (or prefetching) things, least recently wanted first
+	private static LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private static long used;
+
+	private static String levelKey(World world, int levelId) {
+		return "level " + world.getId() + "-" + levelId;
+	}
+
+	private static String sheetKey(int worldId) {
+		// worlds can share a sheet
+		return "sheet " + ImageBank.getWorldSheetName(worldId);
+	}
+
+	/**
+	 * Starts loading a level in the background, if it isn't already.
+	 * @param world The level's world.
+	 * @param levelId The level.
+	 */
+	public static void prefetchLevel(World world, int levelId) {
+		submit(levelKey(world, levelId), () -> world.loadLevel(levelId));
+	}
+
+	/**
+	 * Starts loading a world's background sheet in the background.
+	 * @param worldId The world.
+	 */
+	public static void prefetchWorldSheet(int worldId) {
+		submit(sheetKey(worldId), () -> ImageBank.readWorldSheet(worldId));
+	}
+
+	/**
+	 * @return True if a level has been prefetched and is ready.
+	 */
+	public static synchronized boolean isLevelReady(World world, int levelId) {
+		Entry e = entries.get(levelKey(world, levelId));
+		return e != null && e.task.isDone();
+	}
+
+	/**
+	 * @return True if a world's background sheet has been prefetched and is ready.
+	 */
+	public static synchronized boolean isWorldSheetReady(int worldId) {
+		Entry e = entries.get(sheetKey(worldId));
+		return e != null && e.task.isDone();
+	}
+
+	/**
+	 * Gets a level, prefetched or not.
+	 * @param world The level's world.
+	 * @param levelId The level.
+	 * @return The level, or null if it couldn't be read.
+	 */
+	public static Level getLevel(World world, int levelId) {
+		Object level = take(levelKey(world, levelId));
+		return level != null ? (Level) level : world.loadLevel(levelId);
+	}
+
+	/**
+	 * Gets a world's background sheet, prefetched or not.
+	 * @param worldId The world.
+	 * @return The sheet.
+	 */
+	public static BufferedImage getWorldSheet(int worldId) throws IOException {
+		Object sheet = take(sheetKey(worldId));
+		return sheet != null ? (BufferedImage) sheet : ImageBank.readWorldSheet(worldId);
+	}
+
+	private static synchronized void submit(String key, Callable<Object> loader) {
+		if (entries.get(key) != null) // (counts as wanting it again)
+			return;
+		Entry e = new Entry();
+		e.task = new FutureTask<Object>(() -> {
+			Object value = loader.call();
+			settle(key, e, value);
+			return value;
+		});
+		entries.put(key, e);
+		worker.execute(e.task);
+	}
+
+	/**
+	 * Accounts for a loaded entry, then drops the least recently
+	 * wanted entries (that are loaded) until it's all within budget.
+	 */
+	private static synchronized void settle(String key, Entry e, Object value) {
+		if (entries.get(key) != e) // dropped while loading
+			return;
+		if (value == null) {
+			entries.remove(key);
+			return;
+		}
+		e.bytes = sizeOf(value);
+		used += e.bytes;
+		Iterator<Entry> it = entries.values().iterator();
+		while (used > BUDGET_BYTES && it.hasNext()) {
+			Entry old = it.next();
+			if (old == e || !old.task.isDone())
+				continue;
+			used -= old.bytes;
+			it.remove();
+		}
+	}
+
+	/**
+	 * Gets a prefetched entry. If it hasn't been started yet, it's
+	 * loaded now, on this thread; if it's being loaded, it's waited for.
+	 * @return The entry's value, or null if it wasn't prefetched (or failed).
+	 */
+	private static Object take(String key) {
+		Entry e;
+		synchronized (Prefetcher.class) {
+			e = entries.get(key);
+		}
+		if (e == null)
+			return null;
+		// does nothing if the worker already started it
+		e.task.run();
+		try {
+			return e.task.get();
+		} catch (InterruptedException | ExecutionException ex) {
+			ex.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Roughly how much memory a prefetched value takes.
+	 */
+	private static long sizeOf(Object value) {
+		if (value instanceof BufferedImage) {
+			BufferedImage img = (BufferedImage) value;
+			return (long) img.getWidth() * img.getHeight() * 4;
+		}
+		long bytes = 0;
+		for (PuzzleDefinition def : ((Level) value).getDefinitions()) {
+			int rows = def.getRows();
+			int cols = def.getColumns();
+			// the solution's row and column words, and the clues
+			bytes += 8L * (rows * BitGrid.words(cols) + cols * BitGrid.words(rows));
+			bytes += 16L * (rows + cols) + 4L * def.getFilledCellsInSolution();
+		}
+		return bytes;
+	}
+
+}
@@ -79,6 +79,15 @@ public class Timer {
 		start = time();
 	}
 	
+	/**
+	 * Sets the amount of time elapsed, as if the timer had run that long.
+	 * @param elapsed The elapsed time, in milliseconds.
+	 */
+	public void setElapsed(long elapsed) {
+		elapsedSum = elapsed;
+		start = time();
+	}
+	
 	/**
 	 * A convenience method for calling {@link System#currentTimeMillis()}.
 	 * @return The current time in milliseconds.